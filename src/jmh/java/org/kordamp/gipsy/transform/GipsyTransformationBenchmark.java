@@ -0,0 +1,168 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2013-2023 Andres Almiray
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.kordamp.gipsy.transform;
+
+import org.codehaus.groovy.ast.ASTNode;
+import org.codehaus.groovy.control.CompilationUnit;
+import org.codehaus.groovy.control.CompilerConfiguration;
+import org.codehaus.groovy.control.Phases;
+import org.kordamp.gipsy.transform.service.ServiceProviderASTTransformation;
+import org.kordamp.gipsy.transform.sisu.SisuIndexProviderASTTransformation;
+import org.kordamp.gipsy.transform.type.TypeProviderASTTransformation;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Compiles a generated Groovy project up to class generation with a single gipsy transformation
+ * applied. Run with the {@code gc} profiler (configured in the build) to get allocation per compile.
+ * <p>
+ * The project has {@code services * providersPerService} annotated providers plus {@code sources}
+ * plain classes. A {@code cold} compile starts from an empty output directory and writes every index
+ * file; a {@code warm} compile finds the index files of the previous one, unchanged.
+ *
+ * @author Andres Almiray
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class GipsyTransformationBenchmark {
+    private static final String PACKAGE = "bench";
+
+    @Param({"200", "2000"})
+    public int sources;
+
+    @Param({"1", "50"})
+    public int services;
+
+    @Param({"1", "20"})
+    public int providersPerService;
+
+    @Param({"service", "type", "sisu", "composite"})
+    public String transformation;
+
+    @Param({"cold", "warm"})
+    public String output;
+
+    private final Map<String, String> files = new LinkedHashMap<>();
+    private Path outputDir;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        String annotation = annotationFor(transformation);
+        for (int s = 0; s < services; s++) {
+            files.put(PACKAGE + "/Service" + s + ".groovy",
+                "package " + PACKAGE + "\ninterface Service" + s + " {}\n");
+            for (int p = 0; p < providersPerService; p++) {
+                String name = "Provider" + s + "_" + p;
+                files.put(PACKAGE + "/" + name + ".groovy",
+                    "package " + PACKAGE + "\n@" + annotation + "(Service" + s + ")\nclass " + name + " implements Service" + s + " {}\n");
+            }
+        }
+        for (int i = 0; i < sources; i++) {
+            files.put(PACKAGE + "/Plain" + i + ".groovy",
+                "package " + PACKAGE + "\nclass Plain" + i + " { String name }\n");
+        }
+        outputDir = Files.createTempDirectory("gipsy-jmh");
+    }
+
+    @Setup(Level.Invocation)
+    public void prepareOutput() throws IOException {
+        if ("cold".equals(output)) {
+            delete(outputDir);
+            Files.createDirectories(outputDir);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        delete(outputDir);
+    }
+
+    private static void delete(Path dir) throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    @Benchmark
+    public CompilationUnit compile() {
+        CompilerConfiguration configuration = new CompilerConfiguration();
+        configuration.setTargetDirectory(outputDir.toFile());
+        // the transformation under measurement is added explicitly below
+        configuration.setDisabledGlobalASTTransformations(Collections.singleton(CompositeProviderASTTransformation.class.getName()));
+
+        CompilationUnit unit = new CompilationUnit(configuration);
+        for (Map.Entry<String, String> file : files.entrySet()) {
+            unit.addSource(file.getKey(), file.getValue());
+        }
+
+        GipsyASTTransformation gipsy = newTransformation(transformation);
+        unit.addPhaseOperation(source -> gipsy.visit(new ASTNode[]{source.getAST()}, source), Phases.CLASS_GENERATION);
+        unit.compile(Phases.CLASS_GENERATION);
+        return unit;
+    }
+
+    private static String annotationFor(String transformation) {
+        switch (transformation) {
+            case "type":
+                return "org.kordamp.jipsy.annotations.TypeProviderFor";
+            case "sisu":
+                return "org.kordamp.jipsy.annotations.SisuIndexFor";
+            default:
+                return "org.kordamp.jipsy.annotations.ServiceProviderFor";
+        }
+    }
+
+    private static GipsyASTTransformation newTransformation(String transformation) {
+        switch (transformation) {
+            case "service":
+                return new ServiceProviderASTTransformation();
+            case "type":
+                return new TypeProviderASTTransformation();
+            case "sisu":
+                return new SisuIndexProviderASTTransformation();
+            default:
+                return new CompositeProviderASTTransformation();
+        }
+    }
+}
@@ -0,0 +1,240 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2013-2023 Andres Almiray
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.kordamp.gipsy.runtime;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * Answers provider and type queries from the binary indexes ({@value #RESOURCE_NAME}) found by a
+ * {@link ClassLoader}. Every index visible to a class loader is read once, on first use, and cached
+ * until the class loader is collected. Registrations from several indexes are merged in classpath
+ * order. Indexes that cannot be read, or that were written with another {@link #VERSION}, are
+ * skipped.
+ * <p>
+ * An index starts with {@link #MAGIC} and {@link #VERSION}, followed by a string table sorted by
+ * name where each string only stores the suffix it does not share with the previous one. Sections
+ * for {@code services}, {@code types} and {@code sisu} then refer to table entries by position.
+ * Numbers are unsigned variable length integers, seven bits per byte.
+ * <p>
+ * This class has no dependencies besides the JDK, so it may be used at runtime.
+ *
+ * @author Andres Almiray
+ */
+public final class GipsyIndex {
+    public static final String RESOURCE_NAME = "META-INF/gipsy/index.bin";
+    public static final int MAGIC = 0x47495058;
+    public static final int VERSION = 1;
+
+    public static final String SERVICES = "services";
+    public static final String TYPES = "types";
+    public static final String SISU = "sisu";
+
+    private static final Map<ClassLoader, GipsyIndex> INDEXES = new WeakHashMap<ClassLoader, GipsyIndex>();
+
+    private final Map<String, Map<String, List<String>>> sections;
+
+    private GipsyIndex(Map<String, Map<String, List<String>>> sections) {
+        this.sections = sections;
+    }
+
+    /**
+     * Returns the index of the given class loader, reading it on first use. A {@code null} class
+     * loader stands for the system class loader.
+     */
+    public static GipsyIndex of(ClassLoader classLoader) {
+        ClassLoader loader = classLoader != null ? classLoader : ClassLoader.getSystemClassLoader();
+        synchronized (INDEXES) {
+            GipsyIndex index = INDEXES.get(loader);
+            if (index != null) {
+                return index;
+            }
+        }
+
+        // read outside the lock, a concurrent first use at worst reads the indexes twice
+        GipsyIndex index = load(loader);
+        synchronized (INDEXES) {
+            GipsyIndex existing = INDEXES.get(loader);
+            if (existing != null) {
+                return existing;
+            }
+            INDEXES.put(loader, index);
+        }
+        return index;
+    }
+
+    /**
+     * Names of the providers registered for the given service, highest {@code @ProviderPriority}
+     * first within each index.
+     */
+    public List<String> providers(String serviceName) {
+        return entries(SERVICES, serviceName);
+    }
+
+    /**
+     * Names of the classes registered for the given type.
+     */
+    public List<String> types(String typeName) {
+        return entries(TYPES, typeName);
+    }
+
+    /**
+     * Names of the classes registered for the given Sisu qualifier.
+     */
+    public List<String> sisu(String qualifierName) {
+        return entries(SISU, qualifierName);
+    }
+
+    /**
+     * Names registered for {@code name} in the given section.
+     */
+    public List<String> entries(String section, String name) {
+        Map<String, List<String>> entries = sections.get(section);
+        List<String> names = entries != null ? entries.get(name) : null;
+        return names != null ? names : Collections.<String>emptyList();
+    }
+
+    /**
+     * Services, types or qualifiers with registrations in the given section.
+     */
+    public Set<String> names(String section) {
+        Map<String, List<String>> entries = sections.get(section);
+        return entries != null ? entries.keySet() : Collections.<String>emptySet();
+    }
+
+    private static GipsyIndex load(ClassLoader loader) {
+        Map<String, Map<String, Set<String>>> merged = new HashMap<String, Map<String, Set<String>>>();
+        Enumeration<URL> resources;
+        try {
+            resources = loader.getResources(RESOURCE_NAME);
+        } catch (IOException e) {
+            resources = Collections.emptyEnumeration();
+        }
+        while (resources.hasMoreElements()) {
+            Map<String, Map<String, List<String>>> sections = read(resources.nextElement());
+            if (sections != null) {
+                merge(sections, merged);
+            }
+        }
+
+        Map<String, Map<String, List<String>>> sections = new HashMap<String, Map<String, List<String>>>();
+        for (Map.Entry<String, Map<String, Set<String>>> section : merged.entrySet()) {
+            Map<String, List<String>> entries = new HashMap<String, List<String>>();
+            for (Map.Entry<String, Set<String>> entry : section.getValue().entrySet()) {
+                entries.put(entry.getKey(), Collections.unmodifiableList(new ArrayList<String>(entry.getValue())));
+            }
+            sections.put(section.getKey(), Collections.unmodifiableMap(entries));
+        }
+        return new GipsyIndex(sections);
+    }
+
+    /**
+     * Reads a single index, or returns {@code null} when it cannot be read or was written by an
+     * incompatible version, so that one bad index does not hide the others.
+     */
+    private static Map<String, Map<String, List<String>>> read(URL resource) {
+        try (InputStream in = resource.openStream()) {
+            return read(new DataInputStream(new BufferedInputStream(in)), resource);
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static Map<String, Map<String, List<String>>> read(DataInputStream in, URL resource) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException(resource + " is not a gipsy index");
+        }
+        int version = in.readUnsignedByte();
+        if (version != VERSION) {
+            throw new IOException(resource + " has unsupported version " + version);
+        }
+
+        String[] strings = new String[readVarInt(in)];
+        byte[] previous = new byte[0];
+        for (int i = 0; i < strings.length; i++) {
+            int shared = readVarInt(in);
+            byte[] bytes = new byte[shared + readVarInt(in)];
+            System.arraycopy(previous, 0, bytes, 0, shared);
+            in.readFully(bytes, shared, bytes.length - shared);
+            strings[i] = new String(bytes, StandardCharsets.UTF_8);
+            previous = bytes;
+        }
+
+        Map<String, Map<String, List<String>>> sections = new HashMap<String, Map<String, List<String>>>();
+        int sectionCount = readVarInt(in);
+        for (int i = 0; i < sectionCount; i++) {
+            Map<String, List<String>> entries = new LinkedHashMap<String, List<String>>();
+            sections.put(strings[readVarInt(in)], entries);
+            int entryCount = readVarInt(in);
+            for (int j = 0; j < entryCount; j++) {
+                String name = strings[readVarInt(in)];
+                int count = readVarInt(in);
+                List<String> names = new ArrayList<String>();
+                for (int k = 0; k < count; k++) {
+                    names.add(strings[readVarInt(in)]);
+                }
+                entries.put(name, names);
+            }
+        }
+        return sections;
+    }
+
+    private static void merge(Map<String, Map<String, List<String>>> sections, Map<String, Map<String, Set<String>>> merged) {
+        for (Map.Entry<String, Map<String, List<String>>> section : sections.entrySet()) {
+            Map<String, Set<String>> entries = merged.get(section.getKey());
+            if (entries == null) {
+                entries = new HashMap<String, Set<String>>();
+                merged.put(section.getKey(), entries);
+            }
+            for (Map.Entry<String, List<String>> entry : section.getValue().entrySet()) {
+                Set<String> names = entries.get(entry.getKey());
+                if (names == null) {
+                    names = new LinkedHashSet<String>();
+                    entries.put(entry.getKey(), names);
+                }
+                names.addAll(entry.getValue());
+            }
+        }
+    }
+
+    private static int readVarInt(DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed variable length integer");
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2013-2023 Andres Almiray
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.kordamp.gipsy.runtime;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
+
+/**
+ * Annotation members recorded for registered classes at compile time ({@value #RESOURCE_NAME}),
+ * so that candidates can be filtered before any of them is loaded. Only the annotations listed in
+ * {@code org.kordamp.gipsy.METADATA_ANNOTATIONS} during compilation are recorded, and only members
+ * set explicitly with a constant value. Values are kept as strings; class literals as class names
+ * and enum constants as constant names.
+ * <p>
+ * Metadata visible to a class loader is read once and cached until the class loader is collected;
+ * resources that cannot be read are skipped.
+ * This class has no dependencies besides the JDK, so it may be used at runtime.
+ *
+ * @author Andres Almiray
+ */
+public final class GipsyMetadata {
+    public static final String RESOURCE_NAME = "META-INF/gipsy/metadata.properties";
+
+    private static final Map<ClassLoader, GipsyMetadata> METADATA = new WeakHashMap<ClassLoader, GipsyMetadata>();
+
+    // "<class>/<annotation>" -> member -> values
+    private final Map<String, Map<String, List<String>>> annotations;
+
+    private GipsyMetadata(Map<String, Map<String, List<String>>> annotations) {
+        this.annotations = annotations;
+    }
+
+    /**
+     * Returns the metadata of the given class loader, reading it on first use. A {@code null} class
+     * loader stands for the system class loader.
+     */
+    public static GipsyMetadata of(ClassLoader classLoader) {
+        ClassLoader loader = classLoader != null ? classLoader : ClassLoader.getSystemClassLoader();
+        synchronized (METADATA) {
+            GipsyMetadata metadata = METADATA.get(loader);
+            if (metadata != null) {
+                return metadata;
+            }
+        }
+
+        GipsyMetadata metadata = load(loader);
+        synchronized (METADATA) {
+            GipsyMetadata existing = METADATA.get(loader);
+            if (existing != null) {
+                return existing;
+            }
+            METADATA.put(loader, metadata);
+        }
+        return metadata;
+    }
+
+    /**
+     * Recorded members of an annotation on a class. Single values are lists of one element.
+     */
+    public Map<String, List<String>> attributes(String className, String annotationName) {
+        Map<String, List<String>> members = annotations.get(className + "/" + annotationName);
+        return members != null ? members : Collections.<String, List<String>>emptyMap();
+    }
+
+    /**
+     * The first recorded value of a member, or {@code null} when it was not recorded.
+     */
+    public String value(String className, String annotationName, String member) {
+        List<String> values = attributes(className, annotationName).get(member);
+        return values != null && !values.isEmpty() ? values.get(0) : null;
+    }
+
+    /**
+     * Keeps the classes whose annotation has a member containing the given value.
+     */
+    public List<String> filter(Collection<String> classNames, String annotationName, String member, String value) {
+        List<String> matches = new ArrayList<String>();
+        for (String className : classNames) {
+            List<String> values = attributes(className, annotationName).get(member);
+            if (values != null && values.contains(value)) {
+                matches.add(className);
+            }
+        }
+        return matches;
+    }
+
+    private static GipsyMetadata load(ClassLoader loader) {
+        // "<class>/<annotation>" -> member -> index -> value
+        Map<String, Map<String, Map<Integer, String>>> indexed = new HashMap<String, Map<String, Map<Integer, String>>>();
+        Enumeration<URL> resources;
+        try {
+            resources = loader.getResources(RESOURCE_NAME);
+        } catch (IOException e) {
+            resources = Collections.emptyEnumeration();
+        }
+        while (resources.hasMoreElements()) {
+            Properties properties = read(resources.nextElement());
+            if (properties != null) {
+                for (String key : properties.stringPropertyNames()) {
+                    add(indexed, key, properties.getProperty(key));
+                }
+            }
+        }
+
+        Map<String, Map<String, List<String>>> annotations = new HashMap<String, Map<String, List<String>>>();
+        for (Map.Entry<String, Map<String, Map<Integer, String>>> annotation : indexed.entrySet()) {
+            Map<String, List<String>> members = new HashMap<String, List<String>>();
+            for (Map.Entry<String, Map<Integer, String>> member : annotation.getValue().entrySet()) {
+                members.put(member.getKey(), Collections.unmodifiableList(new ArrayList<String>(member.getValue().values())));
+            }
+            annotations.put(annotation.getKey(), Collections.unmodifiableMap(members));
+        }
+        return new GipsyMetadata(annotations);
+    }
+
+    // a resource that cannot be read is skipped rather than hiding the metadata of the others
+    private static Properties read(URL resource) {
+        Properties properties = new Properties();
+        try (Reader reader = new InputStreamReader(resource.openStream(), StandardCharsets.UTF_8)) {
+            properties.load(reader);
+            return properties;
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static void add(Map<String, Map<String, Map<Integer, String>>> indexed, String key, String value) {
+        int memberSeparator = key.lastIndexOf('/');
+        if (memberSeparator <= 0 || key.indexOf('/') == memberSeparator) {
+            return;
+        }
+
+        String member = key.substring(memberSeparator + 1);
+        int index = 0;
+        int bracket = member.indexOf('[');
+        if (bracket > 0 && member.endsWith("]")) {
+            try {
+                index = Integer.parseInt(member.substring(bracket + 1, member.length() - 1));
+            } catch (NumberFormatException e) {
+                return;
+            }
+            member = member.substring(0, bracket);
+        }
+
+        String annotation = key.substring(0, memberSeparator);
+        Map<String, Map<Integer, String>> members = indexed.get(annotation);
+        if (members == null) {
+            members = new HashMap<String, Map<Integer, String>>();
+            indexed.put(annotation, members);
+        }
+        Map<Integer, String> values = members.get(member);
+        if (values == null) {
+            values = new TreeMap<Integer, String>();
+            members.put(member, values);
+        }
+        values.put(index, value);
+    }
+}
@@ -0,0 +1,225 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2013-2023 Andres Almiray
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.kordamp.gipsy.runtime;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.ServiceConfigurationError;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Loads and initializes provider classes of a {@link ClassLoader} in the background, so that they are
+ * warm by the time they are looked up. Provider names come from the {@link GipsyIndex} followed by the
+ * {@code META-INF/services} files, so that providers of jars compiled without a binary index are found
+ * as well. Each name is kept once, at its first position.
+ * <p>
+ * Classes are loaded on a shared executor with one thread per available processor, using virtual
+ * threads when the JVM supports them. {@link #load(Class)} returns providers in registration order,
+ * like {@link java.util.ServiceLoader}. It never waits for the executor: a class that is not loaded
+ * yet is loaded by the calling thread instead.
+ * <p>
+ * Instances hold the class loader and its loaded classes, so they should not outlive it.
+ *
+ * @author Andres Almiray
+ */
+public final class ProviderPreloader {
+    private static final String SERVICES_PATH = "META-INF/services/";
+
+    private final ClassLoader classLoader;
+    private final Map<String, Future<Class<?>>> classes = new ConcurrentHashMap<String, Future<Class<?>>>();
+
+    public ProviderPreloader(ClassLoader classLoader) {
+        this.classLoader = classLoader != null ? classLoader : ClassLoader.getSystemClassLoader();
+    }
+
+    /**
+     * Starts loading the providers of the given services.
+     */
+    public ProviderPreloader preload(String... serviceNames) {
+        for (String serviceName : serviceNames) {
+            for (String providerName : providerNames(serviceName)) {
+                preloadClass(providerName);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Starts loading the providers of every service in the binary indexes.
+     */
+    public ProviderPreloader preloadAll() {
+        for (String serviceName : GipsyIndex.of(classLoader).names(GipsyIndex.SERVICES)) {
+            preload(serviceName);
+        }
+        return this;
+    }
+
+    /**
+     * Returns the providers of the given service, instantiated lazily while iterating. Failures are
+     * reported as {@link ServiceConfigurationError}, as {@link java.util.ServiceLoader} does.
+     */
+    public <S> Iterable<S> load(final Class<S> service) {
+        final List<String> providerNames = providerNames(service.getName());
+        return new Iterable<S>() {
+            @Override
+            public Iterator<S> iterator() {
+                return new ProviderIterator<S>(service, providerNames.iterator());
+            }
+        };
+    }
+
+    /**
+     * Returns the first provider of the given service without instantiating any other. Providers
+     * from the binary index come first, ordered by {@code @ProviderPriority}.
+     */
+    public <S> Optional<S> findFirst(Class<S> service) {
+        Iterator<S> providers = load(service).iterator();
+        return providers.hasNext() ? Optional.of(providers.next()) : Optional.<S>empty();
+    }
+
+    private void preloadClass(final String className) {
+        if (classes.containsKey(className)) {
+            return;
+        }
+        Future<Class<?>> future = SharedExecutor.INSTANCE.submit(() -> Class.forName(className, true, classLoader));
+        if (classes.putIfAbsent(className, future) != null) {
+            future.cancel(false);
+        }
+    }
+
+    private Class<?> loadClass(String className) throws ClassNotFoundException {
+        Future<Class<?>> future = classes.get(className);
+        if (future != null && future.isDone() && !future.isCancelled()) {
+            try {
+                return future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                // report the failure from the calling thread
+            }
+        }
+        return Class.forName(className, true, classLoader);
+    }
+
+    private List<String> providerNames(String serviceName) {
+        // indexed providers first, to keep their priority order; not every jar comes with an index
+        Set<String> providers = new LinkedHashSet<String>(GipsyIndex.of(classLoader).providers(serviceName));
+        try {
+            Enumeration<URL> resources = classLoader.getResources(SERVICES_PATH + serviceName);
+            while (resources.hasMoreElements()) {
+                try (BufferedReader reader = new BufferedReader(new InputStreamReader(resources.nextElement().openStream(), StandardCharsets.UTF_8))) {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        int comment = line.indexOf('#');
+                        String name = (comment >= 0 ? line.substring(0, comment) : line).trim();
+                        if (name.length() > 0) {
+                            providers.add(name);
+                        }
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new ServiceConfigurationError(serviceName + ": Error reading configuration file", e);
+        }
+        return new ArrayList<String>(providers);
+    }
+
+    private final class ProviderIterator<S> implements Iterator<S> {
+        private final Class<S> service;
+        private final Iterator<String> providerNames;
+
+        private ProviderIterator(Class<S> service, Iterator<String> providerNames) {
+            this.service = service;
+            this.providerNames = providerNames;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return providerNames.hasNext();
+        }
+
+        @Override
+        public S next() {
+            if (!providerNames.hasNext()) {
+                throw new NoSuchElementException();
+            }
+
+            String providerName = providerNames.next();
+            Class<?> providerClass;
+            try {
+                providerClass = loadClass(providerName);
+            } catch (ClassNotFoundException | LinkageError e) {
+                throw new ServiceConfigurationError(service.getName() + ": Provider " + providerName + " not found", e);
+            }
+            if (!service.isAssignableFrom(providerClass)) {
+                throw new ServiceConfigurationError(service.getName() + ": Provider " + providerName + " not a subtype");
+            }
+            try {
+                return service.cast(providerClass.getDeclaredConstructor().newInstance());
+            } catch (Exception | LinkageError e) {
+                throw new ServiceConfigurationError(service.getName() + ": Provider " + providerName + " could not be instantiated", e);
+            }
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * Shared executor, created on first use.
+     */
+    private static final class SharedExecutor {
+        private static final ExecutorService INSTANCE = Executors.newFixedThreadPool(
+            Runtime.getRuntime().availableProcessors(), threadFactory());
+
+        private static ThreadFactory threadFactory() {
+            try {
+                // Thread.ofVirtual().factory(), available since Java 21
+                Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+                return (ThreadFactory) Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+            } catch (ReflectiveOperationException e) {
+                final AtomicInteger count = new AtomicInteger();
+                return runnable -> {
+                    Thread thread = new Thread(runnable, "gipsy-preloader-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                };
+            }
+        }
+    }
+}
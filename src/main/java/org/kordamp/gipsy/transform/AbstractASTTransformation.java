@@ -22,7 +22,9 @@ import org.codehaus.groovy.ast.expr.ArgumentListExpression;
 import org.codehaus.groovy.ast.expr.Expression;
 import org.codehaus.groovy.ast.expr.StaticMethodCallExpression;
 import org.codehaus.groovy.control.SourceUnit;
+import org.codehaus.groovy.control.messages.SimpleMessage;
 import org.codehaus.groovy.control.messages.SyntaxErrorMessage;
+import org.codehaus.groovy.control.messages.WarningMessage;
 import org.codehaus.groovy.syntax.SyntaxException;
 import org.codehaus.groovy.transform.ASTTransformation;
 
@@ -32,6 +34,9 @@ import java.util.Collections;
  * @author Andres Almiray
  */
 public abstract class AbstractASTTransformation implements ASTTransformation {
+    private static final GenericsType[] EMPTY_GENERICS_TYPES = new GenericsType[0];
+    private static final ClassNode[] EMPTY_CLASS_NODES = new ClassNode[0];
+
     private static final ClassNode COLLECTIONS_CLASS = makeClassSafe(Collections.class);
 
     public void addError(String msg, ASTNode expr, SourceUnit source) {
@@ -42,6 +47,17 @@ public abstract class AbstractASTTransformation implements ASTTransformation {
         );
     }
 
+    /**
+     * Reports an error that concerns the source as a whole rather than one of its nodes.
+     */
+    public void addError(String msg, SourceUnit source) {
+        source.getErrorCollector().addErrorAndContinue(new SimpleMessage(msg, source));
+    }
+
+    public void addWarning(String msg, SourceUnit source) {
+        source.getErrorCollector().addWarning(WarningMessage.LIKELY_ERRORS, msg, null, source);
+    }
+
     protected void checkNodesForAnnotationAndType(ASTNode node1, ASTNode node2) {
         if (!(node1 instanceof AnnotationNode) || !(node2 instanceof ClassNode)) {
             throw new IllegalArgumentException("Internal error: wrong types: " + node1.getClass() + " / " + node2.getClass());
@@ -70,8 +86,8 @@ public abstract class AbstractASTTransformation implements ASTTransformation {
     }
 
     public static ClassNode makeClassSafeWithGenerics(String className, String... genericTypes) {
-        GenericsType[] gtypes = new GenericsType[0];
-        if (genericTypes != null) {
+        GenericsType[] gtypes = EMPTY_GENERICS_TYPES;
+        if (genericTypes != null && genericTypes.length > 0) {
             gtypes = new GenericsType[genericTypes.length];
             for (int i = 0; i < gtypes.length; i++) {
                 gtypes[i] = new GenericsType(makeClassSafe(genericTypes[i]));
@@ -81,19 +97,19 @@ public abstract class AbstractASTTransformation implements ASTTransformation {
     }
 
     public static ClassNode makeClassSafeWithGenerics(Class klass, Class... genericTypes) {
-        GenericsType[] gtypes = new GenericsType[0];
-        if (genericTypes != null) {
+        GenericsType[] gtypes = EMPTY_GENERICS_TYPES;
+        if (genericTypes != null && genericTypes.length > 0) {
             gtypes = new GenericsType[genericTypes.length];
             for (int i = 0; i < gtypes.length; i++) {
-                gtypes[i] = new GenericsType(makeClassSafe(genericTypes[i]));
+                gtypes[i] = new GenericsType(newClass(ClassHelper.make(genericTypes[i])));
             }
         }
         return makeClassSafe0(ClassHelper.make(klass), gtypes);
     }
 
     public static ClassNode makeClassSafeWithGenerics(ClassNode classNode, ClassNode... genericTypes) {
-        GenericsType[] gtypes = new GenericsType[0];
-        if (genericTypes != null) {
+        GenericsType[] gtypes = EMPTY_GENERICS_TYPES;
+        if (genericTypes != null && genericTypes.length > 0) {
             gtypes = new GenericsType[genericTypes.length];
             for (int i = 0; i < gtypes.length; i++) {
                 gtypes[i] = new GenericsType(newClass(genericTypes[i]));
@@ -103,8 +119,8 @@ public abstract class AbstractASTTransformation implements ASTTransformation {
     }
 
     public static GenericsType makeGenericsType(String className, String[] upperBounds, String lowerBound, boolean placeHolder) {
-        ClassNode[] up = new ClassNode[0];
-        if (upperBounds != null) {
+        ClassNode[] up = EMPTY_CLASS_NODES;
+        if (upperBounds != null && upperBounds.length > 0) {
             up = new ClassNode[upperBounds.length];
             for (int i = 0; i < up.length; i++) {
                 up[i] = makeClassSafe(upperBounds[i]);
@@ -114,14 +130,14 @@ public abstract class AbstractASTTransformation implements ASTTransformation {
     }
 
     public static GenericsType makeGenericsType(Class klass, Class[] upperBounds, Class lowerBound, boolean placeHolder) {
-        ClassNode[] up = new ClassNode[0];
-        if (upperBounds != null) {
+        ClassNode[] up = EMPTY_CLASS_NODES;
+        if (upperBounds != null && upperBounds.length > 0) {
             up = new ClassNode[upperBounds.length];
             for (int i = 0; i < up.length; i++) {
-                up[i] = makeClassSafe(upperBounds[i]);
+                up[i] = newClass(ClassHelper.make(upperBounds[i]));
             }
         }
-        return makeGenericsType(makeClassSafe(klass), up, makeClassSafe(lowerBound), placeHolder);
+        return makeGenericsType(ClassHelper.make(klass), up, newClass(ClassHelper.make(lowerBound)), placeHolder);
     }
 
     public static GenericsType makeGenericsType(ClassNode classNode, ClassNode[] upperBounds, ClassNode lowerBound, boolean placeHolder) {
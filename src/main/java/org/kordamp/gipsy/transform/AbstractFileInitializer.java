@@ -17,12 +17,17 @@
  */
 package org.kordamp.gipsy.transform;
 
-import org.codehaus.groovy.runtime.ResourceGroovyMethods;
 import org.kordamp.jipsy.processor.Initializer;
 import org.kordamp.jipsy.processor.LogLocation;
 import org.kordamp.jipsy.processor.Logger;
 
-import java.io.*;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
 
 /**
  * @author Andres Almiray
@@ -40,48 +45,27 @@ public abstract class AbstractFileInitializer implements Initializer {
 
     @Override
     public CharSequence initialData(String name) {
-        File file = new File(outputDir.getAbsolutePath() + File.separator + path + name);
-        file.getParentFile().mkdirs();
-
-        CharSequence result;
+        Path file = new File(outputDir.getAbsolutePath() + File.separator + path + name).toPath();
         try {
-            // Eclipse can't handle the getCharContent
-            // See https://bugs.eclipse.org/bugs/show_bug.cgi?id=246089
-            // 2008-09-12 RoelS: I've posted a patch file
-            result = tryWithReader(file);
-        } catch (FileNotFoundException e) {
+            return read(file);
+        } catch (NoSuchFileException e) {
             // Could happen
             return null;
         } catch (IOException e) {
-            logger.note(LogLocation.MESSAGER, "Eclipse gave an IOException: " + e.getMessage());
-            return null;
-        } catch (Exception other) {
-            try {
-                // Javac can't handle the openReader
-                // Filed as a bug at bugs.sun.com and received a review ID: 1339738
-                result = ResourceGroovyMethods.getText(file);
-            } catch (FileNotFoundException e) {
-                // Could happen
-                return null;
-            } catch (IOException e) {
-                logger.note(LogLocation.MESSAGER, "Javac gave an IOException: " + e.getMessage());
-                return null;
+            if (GipsyLogger.isNoteEnabled(logger)) {
+                logger.note(LogLocation.MESSAGER, "IOException while reading " + file + ": " + e.getMessage());
             }
+            return null;
         }
-        return result;
     }
 
-    protected CharSequence tryWithReader(File file) throws IOException {
-        StringBuilder sb = new StringBuilder();
-        BufferedReader reader = new BufferedReader(new FileReader(file));
-        try {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                sb.append(line).append("\n");
-            }
-        } finally {
-            reader.close();
-        }
-        return sb;
+    /**
+     * Reads the whole file at once and decodes it as UTF-8 in a single pass. The returned
+     * buffer is handed to the collectors as is, without copying it into a {@code String}.
+     */
+    protected CharSequence read(Path file) throws IOException {
+        byte[] bytes = Files.readAllBytes(file);
+        GipsyPhase.fileRead();
+        return StandardCharsets.UTF_8.decode(ByteBuffer.wrap(bytes));
     }
 }
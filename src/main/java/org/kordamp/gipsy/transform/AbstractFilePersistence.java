@@ -24,14 +24,37 @@ import org.kordamp.jipsy.processor.Logger;
 
 import java.io.*;
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 /**
  * @author Andres Almiray
  */
-public abstract class AbstractFilePersistence extends AbstractPersistence {
+public abstract class AbstractFilePersistence extends AbstractPersistence implements IndexPersistence {
     private static final String DEFAULT_TARGET_DIR = "org.kordamp.gipsy.DEFAULT_TARGET_DIR";
+    private static final String FILE_LOCKING = "org.kordamp.gipsy.FILE_LOCKING";
+    private static final String LOCK_TIMEOUT = "org.kordamp.gipsy.LOCK_TIMEOUT";
+    private static final String TEMP_FILE_SUFFIX = ".gipsy.tmp";
+    // temporary files younger than this may belong to a commit of a concurrent compilation
+    private static final long LEFTOVER_AGE_MILLIS = TimeUnit.HOURS.toMillis(1);
 
     protected final File outputDir;
+    private final Map<File, Path> pendingFiles = new LinkedHashMap<File, Path>();
+    private final Set<String> staleProviders = new HashSet<String>();
+    private IndexDirectoryLock directoryLock;
 
     public AbstractFilePersistence(File outputDir, String name, Logger logger, String path) {
         super(name, logger, path);
@@ -56,6 +79,23 @@ public abstract class AbstractFilePersistence extends AbstractPersistence {
         }
     }
 
+    static boolean hasDefaultTargetDir() {
+        String defaultPath = System.getProperty(DEFAULT_TARGET_DIR);
+        return defaultPath != null && defaultPath.trim().length() > 0;
+    }
+
+    @Override
+    public Collection<String> tryFind() {
+        List<String> names = new ArrayList<String>();
+        for (String name : super.tryFind()) {
+            // leftovers of an interrupted commit
+            if (!name.endsWith(TEMP_FILE_SUFFIX)) {
+                names.add(name);
+            }
+        }
+        return names;
+    }
+
     @Override
     public Initializer getInitializer() {
         return new DefaultFileInitializer(outputDir, path, logger);
@@ -70,7 +110,9 @@ public abstract class AbstractFilePersistence extends AbstractPersistence {
             // Could happen
             return null;
         } catch (IOException e) {
-            logger.note(LogLocation.MESSAGER, "IOException while determining output location: " + e.getMessage());
+            if (GipsyLogger.isNoteEnabled(logger)) {
+                logger.note(LogLocation.MESSAGER, "IOException while determining output location: " + e.getMessage());
+            }
             return null;
         } catch (IllegalArgumentException e) {
             // Happens when the path is invalid. For instance absolute or relative to a path
@@ -101,8 +143,208 @@ public abstract class AbstractFilePersistence extends AbstractPersistence {
         new File(outputDir.getAbsolutePath() + File.separator + path + name).delete();
     }
 
+    /**
+     * Content is buffered and only written when it differs from the existing file, ignoring
+     * comment lines such as the generated header. Unchanged files keep their timestamps, which
+     * keeps downstream up-to-date checks valid.
+     * <p>
+     * Changed content goes to a temporary file in the same directory. It becomes visible once
+     * {@link #commit()} moves all pending files into place.
+     */
     @Override
     protected Writer createWriter(String name) throws IOException {
-        return new BufferedWriter(new FileWriter(getResourceFile(name)));
+        return new IndexFileWriter(getResourceFile(name));
+    }
+
+    @Override
+    public void writeBytes(String name, byte[] content) throws IOException {
+        File file = getResourceFile(name);
+        if (file.isFile()) {
+            byte[] existing = Files.readAllBytes(file.toPath());
+            GipsyPhase.fileRead();
+            if (Arrays.equals(existing, content)) {
+                return;
+            }
+        }
+        stage(file, content);
+    }
+
+    /**
+     * Records a provider whose registrations are being recomputed, so that it is not merged back
+     * from files updated concurrently by another process.
+     */
+    @Override
+    public void markStale(String providerName) {
+        staleProviders.add(providerName);
+    }
+
+    /**
+     * Locks the index directories of the output directory against concurrent writers when the system
+     * property {@code org.kordamp.gipsy.FILE_LOCKING} is set. While locked, files being written are
+     * merged with providers other processes added since they were read. Waits at most
+     * {@code org.kordamp.gipsy.LOCK_TIMEOUT} milliseconds, then proceeds without the lock. Proceeds
+     * without the lock as well when the lock file cannot be opened.
+     */
+    @Override
+    public boolean lock() {
+        if (!Boolean.getBoolean(FILE_LOCKING)) {
+            return true;
+        }
+        if (directoryLock == null) {
+            directoryLock = new IndexDirectoryLock(IndexDirectoryLock.lockFileFor(outputDir), Long.getLong(LOCK_TIMEOUT, 10000L));
+        }
+        try {
+            return directoryLock.lock();
+        } catch (IOException e) {
+            logger.warning(LogLocation.LOG_FILE, "Could not lock " + path + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    @Override
+    public void unlock() throws IOException {
+        if (directoryLock != null) {
+            directoryLock.unlock();
+        }
+    }
+
+    /**
+     * Atomically moves every file written since the last commit into place.
+     */
+    @Override
+    public void commit() throws IOException {
+        try {
+            for (Map.Entry<File, Path> entry : pendingFiles.entrySet()) {
+                Path target = entry.getKey().toPath();
+                try {
+                    Files.move(entry.getValue(), target, StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(entry.getValue(), target, StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+        } finally {
+            discard();
+        }
+    }
+
+    /**
+     * Deletes temporary files left over by interrupted commits, so that they are not packaged. Only
+     * files older than an hour are deleted, since younger ones may be staged by a concurrent
+     * compilation that has yet to move them into place.
+     */
+    @Override
+    public void deleteLeftovers() {
+        long cutoff = System.currentTimeMillis() - LEFTOVER_AGE_MILLIS;
+        File[] leftovers = new File(outputDir.getAbsolutePath() + File.separator + path)
+            .listFiles((dir, name) -> name.endsWith(TEMP_FILE_SUFFIX) && new File(dir, name).lastModified() < cutoff);
+        if (leftovers == null) {
+            return;
+        }
+        for (File leftover : leftovers) {
+            if (!leftover.delete() && GipsyLogger.isNoteEnabled(logger)) {
+                logger.note(LogLocation.LOG_FILE, "Could not delete temporary file " + leftover);
+            }
+        }
+    }
+
+    /**
+     * Drops every file written since the last commit.
+     */
+    @Override
+    public void discard() {
+        for (Path temp : pendingFiles.values()) {
+            try {
+                Files.deleteIfExists(temp);
+            } catch (IOException e) {
+                if (GipsyLogger.isNoteEnabled(logger)) {
+                    logger.note(LogLocation.LOG_FILE, "Could not delete temporary file " + temp + ": " + e.getMessage());
+                }
+            }
+        }
+        pendingFiles.clear();
+    }
+
+    private class IndexFileWriter extends StringWriter {
+        private final File file;
+        private boolean closed;
+
+        private IndexFileWriter(File file) {
+            this.file = file;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+
+            String content = toString();
+            String existing = null;
+            if (file.isFile()) {
+                existing = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+                GipsyPhase.fileRead();
+            }
+            if (existing != null && directoryLock != null && directoryLock.isLocked()) {
+                content = merge(content, existing);
+            }
+            if (existing != null && isSameContent(existing, content)) {
+                if (GipsyLogger.isNoteEnabled(logger)) {
+                    logger.note(LogLocation.LOG_FILE, "Skipping unchanged file '" + file.getName() + "'");
+                }
+                return;
+            }
+
+            stage(file, content.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private void stage(File file, byte[] bytes) throws IOException {
+        File dir = file.getParentFile();
+        dir.mkdirs();
+        Path temp = Files.createTempFile(dir.toPath(), file.getName() + ".", TEMP_FILE_SUFFIX);
+        Files.write(temp, bytes);
+        GipsyPhase.fileWritten(bytes.length);
+        Path previous = pendingFiles.put(file, temp);
+        if (previous != null) {
+            Files.deleteIfExists(previous);
+        }
+    }
+
+    private String merge(String content, String existing) {
+        Set<String> lines = new LinkedHashSet<String>();
+        for (String line : content.split("\\r?\\n")) {
+            lines.add(line.trim());
+        }
+
+        StringBuilder sb = new StringBuilder(content);
+        if (sb.length() > 0 && sb.charAt(sb.length() - 1) != '\n') {
+            sb.append('\n');
+        }
+        for (String line : existing.split("\\r?\\n")) {
+            String provider = line.trim();
+            if (provider.isEmpty() || provider.startsWith("#") || lines.contains(provider) || staleProviders.contains(provider)) {
+                continue;
+            }
+            sb.append(provider).append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Compares index file contents, ignoring comment lines such as the generated header.
+     */
+    static boolean isSameContent(String existing, String content) {
+        return stripComments(existing).equals(stripComments(content));
+    }
+
+    private static String stripComments(String content) {
+        StringBuilder sb = new StringBuilder(content.length());
+        for (String line : content.split("\\r?\\n")) {
+            if (!line.startsWith("#")) {
+                sb.append(line).append('\n');
+            }
+        }
+        return sb.toString();
     }
 }
@@ -0,0 +1,204 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2013-2023 Andres Almiray
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.kordamp.gipsy.transform;
+
+import org.codehaus.groovy.ast.AnnotationNode;
+import org.codehaus.groovy.ast.ClassNode;
+import org.codehaus.groovy.ast.expr.ClassExpression;
+import org.codehaus.groovy.ast.expr.ConstantExpression;
+import org.codehaus.groovy.ast.expr.Expression;
+import org.codehaus.groovy.ast.expr.ListExpression;
+import org.codehaus.groovy.ast.expr.PropertyExpression;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Constant members of selected annotations on registered classes, read by
+ * {@link org.kordamp.gipsy.runtime.GipsyMetadata}. Each member is stored as a
+ * {@code <class>/<annotation>/<member>} property; array members get one property per element,
+ * suffixed with {@code [index]}. Strings, numbers, booleans, characters, class literals and enum
+ * constants are kept, other members are skipped. Members left to their default value are not
+ * stored.
+ *
+ * @author Andres Almiray
+ */
+final class AnnotationMetadata {
+    static final String FILE_NAME = "metadata.properties";
+
+    private final Set<String> annotationNames;
+    private final Map<String, Map<String, String>> entries = new TreeMap<String, Map<String, String>>();
+    private boolean modified;
+
+    AnnotationMetadata(Set<String> annotationNames) {
+        this.annotationNames = annotationNames;
+    }
+
+    void read(CharSequence content) throws IOException {
+        Properties properties = new Properties();
+        properties.load(new StringReader(content.toString()));
+        for (String key : properties.stringPropertyNames()) {
+            int separator = key.indexOf('/');
+            if (separator > 0) {
+                entries(key.substring(0, separator)).put(key.substring(separator + 1), properties.getProperty(key));
+            }
+        }
+    }
+
+    void remove(String className) {
+        if (entries.remove(className) != null) {
+            modified = true;
+        }
+    }
+
+    void record(ClassNode classNode) {
+        for (AnnotationNode annotation : classNode.getAnnotations()) {
+            String annotationName = annotation.getClassNode().getName();
+            if (!annotationNames.contains(annotationName)) {
+                continue;
+            }
+            for (Map.Entry<String, Expression> member : annotation.getMembers().entrySet()) {
+                String key = annotationName + "/" + member.getKey();
+                Expression value = member.getValue();
+                if (value instanceof ListExpression) {
+                    List<Expression> elements = ((ListExpression) value).getExpressions();
+                    for (int i = 0; i < elements.size(); i++) {
+                        put(classNode.getName(), key + "[" + i + "]", elements.get(i));
+                    }
+                } else {
+                    put(classNode.getName(), key, value);
+                }
+            }
+        }
+    }
+
+    private void put(String className, String key, Expression expression) {
+        String value = constantValue(expression);
+        if (value != null) {
+            entries(className).put(key, value);
+            modified = true;
+        }
+    }
+
+    private static String constantValue(Expression expression) {
+        if (expression instanceof ConstantExpression) {
+            Object value = ((ConstantExpression) expression).getValue();
+            return value != null ? value.toString() : null;
+        } else if (expression instanceof ClassExpression) {
+            return expression.getType().getName();
+        } else if (expression instanceof PropertyExpression) {
+            PropertyExpression property = (PropertyExpression) expression;
+            if (property.getObjectExpression() instanceof ClassExpression && property.getObjectExpression().getType().isEnum()) {
+                return property.getPropertyAsString();
+            }
+        }
+        return null;
+    }
+
+    private Map<String, String> entries(String className) {
+        Map<String, String> members = entries.get(className);
+        if (members == null) {
+            members = new TreeMap<String, String>();
+            entries.put(className, members);
+        }
+        return members;
+    }
+
+    boolean isModified() {
+        return modified;
+    }
+
+    boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    /**
+     * Renders every entry sorted by key, so equal metadata always produces the same bytes.
+     */
+    byte[] toBytes() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Map<String, String>> entry : entries.entrySet()) {
+            for (Map.Entry<String, String> member : entry.getValue().entrySet()) {
+                escape(sb, entry.getKey() + "/" + member.getKey(), true);
+                sb.append('=');
+                escape(sb, member.getValue(), false);
+                sb.append('\n');
+            }
+        }
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Escapes as {@link Properties#load(java.io.Reader)} expects.
+     */
+    private static void escape(StringBuilder sb, String value, boolean key) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                case '\f':
+                    sb.append("\\f");
+                    break;
+                case ' ':
+                    sb.append(key || i == 0 ? "\\ " : " ");
+                    break;
+                case '=':
+                case ':':
+                case '#':
+                case '!':
+                    sb.append('\\').append(c);
+                    break;
+                default:
+                    sb.append(c);
+            }
+        }
+    }
+
+    /**
+     * Parses a comma separated list of annotation class names.
+     */
+    static Set<String> annotationNames(String names) {
+        Set<String> annotationNames = new HashSet<String>();
+        if (names != null) {
+            for (String name : names.split(",")) {
+                if (name.trim().length() > 0) {
+                    annotationNames.add(name.trim());
+                }
+            }
+        }
+        return annotationNames;
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2013-2023 Andres Almiray
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.kordamp.gipsy.transform;
+
+import org.kordamp.gipsy.runtime.GipsyIndex;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Encodes registrations in the format read by {@link GipsyIndex}. Entries are written sorted by
+ * name, so equal registrations always produce the same bytes and unchanged indexes are not rewritten.
+ *
+ * @author Andres Almiray
+ */
+final class BinaryIndexWriter {
+    private BinaryIndexWriter() {
+        // prevent instantiation
+    }
+
+    /**
+     * @param sections registered names per service, type or qualifier, keyed by section name
+     */
+    static byte[] write(Map<String, Map<String, List<String>>> sections) throws IOException {
+        TreeSet<String> strings = new TreeSet<String>();
+        for (Map.Entry<String, Map<String, List<String>>> section : sections.entrySet()) {
+            strings.add(section.getKey());
+            for (Map.Entry<String, List<String>> entry : section.getValue().entrySet()) {
+                if (!entry.getValue().isEmpty()) {
+                    strings.add(entry.getKey());
+                    strings.addAll(entry.getValue());
+                }
+            }
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(GipsyIndex.MAGIC);
+        out.writeByte(GipsyIndex.VERSION);
+
+        Map<String, Integer> ids = new HashMap<String, Integer>();
+        writeVarInt(out, strings.size());
+        byte[] previous = new byte[0];
+        for (String string : strings) {
+            ids.put(string, ids.size());
+            byte[] current = string.getBytes(StandardCharsets.UTF_8);
+            int shared = sharedPrefix(previous, current);
+            writeVarInt(out, shared);
+            writeVarInt(out, current.length - shared);
+            out.write(current, shared, current.length - shared);
+            previous = current;
+        }
+
+        writeVarInt(out, sections.size());
+        for (Map.Entry<String, Map<String, List<String>>> section : sections.entrySet()) {
+            Map<String, List<String>> entries = new TreeMap<String, List<String>>(section.getValue());
+            writeVarInt(out, ids.get(section.getKey()));
+            int entryCount = 0;
+            for (List<String> names : entries.values()) {
+                if (!names.isEmpty()) {
+                    entryCount++;
+                }
+            }
+            writeVarInt(out, entryCount);
+            for (Map.Entry<String, List<String>> entry : entries.entrySet()) {
+                if (entry.getValue().isEmpty()) {
+                    continue;
+                }
+                writeVarInt(out, ids.get(entry.getKey()));
+                writeVarInt(out, entry.getValue().size());
+                for (String name : entry.getValue()) {
+                    writeVarInt(out, ids.get(name));
+                }
+            }
+        }
+
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static int sharedPrefix(byte[] previous, byte[] current) {
+        int length = Math.min(previous.length, current.length);
+        int shared = 0;
+        while (shared < length && previous[shared] == current[shared]) {
+            shared++;
+        }
+        return shared;
+    }
+
+    private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+}
@@ -0,0 +1,335 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2013-2023 Andres Almiray
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.kordamp.gipsy.transform;
+
+import org.codehaus.groovy.ast.AnnotationNode;
+import org.codehaus.groovy.ast.ClassNode;
+import org.codehaus.groovy.ast.ModuleNode;
+import org.codehaus.groovy.control.CompilationUnit;
+import org.codehaus.groovy.control.CompilePhase;
+import org.codehaus.groovy.tools.GroovyClass;
+import org.codehaus.groovy.transform.ASTTransformation;
+import org.codehaus.groovy.transform.CompilationUnitAware;
+import org.codehaus.groovy.transform.GroovyASTTransformation;
+import org.kordamp.gipsy.runtime.GipsyIndex;
+import org.kordamp.gipsy.transform.service.ServiceProviderASTTransformation;
+import org.kordamp.gipsy.transform.sisu.SisuIndexProviderASTTransformation;
+import org.kordamp.gipsy.transform.type.TypeProviderASTTransformation;
+import org.kordamp.jipsy.annotations.ServiceProviderFor;
+import org.kordamp.jipsy.processor.LogLocation;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Handles {@code @ServiceProviderFor}, {@code @TypeProviderFor} and {@code @SisuIndexFor} in a single
+ * walk per module, routing each annotation to the transformation responsible for it. Options and
+ * logger are shared by all delegates.
+ * <p>
+ * The provider registry class, when enabled, is added to the classes of the compilation unit so that
+ * it is written along with them. The binary index, class list and native-image configuration, when
+ * enabled, are written next to the index files.
+ * <p>
+ * Setting {@code org.kordamp.gipsy.METADATA_ANNOTATIONS} to a comma separated list of annotation
+ * class names records their constant members for every registered class, see {@link AnnotationMetadata}.
+ *
+ * @author Andres Almiray
+ */
+@ServiceProviderFor(ASTTransformation.class)
+@GroovyASTTransformation(phase = CompilePhase.CLASS_GENERATION)
+public class CompositeProviderASTTransformation extends GipsyASTTransformation implements CompilationUnitAware {
+    public static final String NAME = CompositeProviderASTTransformation.class.getName()
+        + " (" + CompositeProviderASTTransformation.class.getPackage().getImplementationVersion() + ")";
+
+    // file names within META-INF/gipsy/, see GipsyIndex.RESOURCE_NAME
+    private static final String INDEX_FILE_NAME = "index.bin";
+    private static final String CLASSLIST_FILE_NAME = "cds.classlist";
+    private static final String METADATA_ANNOTATIONS = "org.kordamp.gipsy.METADATA_ANNOTATIONS";
+    private static final int SERVICES = 0;
+    private static final int TYPES = 1;
+
+    private final IndexASTTransformation[] delegates = {
+        new ServiceProviderASTTransformation(),
+        new TypeProviderASTTransformation(),
+        new SisuIndexProviderASTTransformation()
+    };
+    private final boolean[] initialized = new boolean[delegates.length];
+    private IndexASTTransformation logDelegate;
+    private CompilationUnit compilationUnit;
+    private AnnotationMetadata metadata;
+    private IndexPersistence metadataPersistence;
+
+    @Override
+    public void setCompilationUnit(CompilationUnit compilationUnit) {
+        this.compilationUnit = compilationUnit;
+    }
+
+    @Override
+    protected boolean accepts(AnnotationNode annotation) {
+        return indexOf(annotation) != -1;
+    }
+
+    private int indexOf(AnnotationNode annotation) {
+        ClassNode annotationClassNode = annotation.getClassNode();
+        for (int i = 0; i < delegates.length; i++) {
+            if (delegates[i].getAnnotationClassNode().equals(annotationClassNode)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    protected List<String> getIndexNames() {
+        List<String> names = new ArrayList<String>(delegates.length);
+        for (IndexASTTransformation delegate : delegates) {
+            names.add(delegate.getIndexName());
+        }
+        return names;
+    }
+
+    @Override
+    protected void initialize(ModuleNode moduleNode) {
+        super.initialize(moduleNode);
+        Arrays.fill(initialized, false);
+        metadata = null;
+        if (options.disabled()) {
+            return;
+        }
+
+        Set<String> annotationNames = AnnotationMetadata.annotationNames(System.getProperty(METADATA_ANNOTATIONS));
+        if (!annotationNames.isEmpty()) {
+            metadata = new AnnotationMetadata(annotationNames);
+            metadataPersistence = gipsyResources(moduleNode);
+            CharSequence content = metadataPersistence.getInitializer().initialData(AnnotationMetadata.FILE_NAME);
+            if (content != null) {
+                try {
+                    metadata.read(content);
+                } catch (IOException e) {
+                    logger.warning(LogLocation.LOG_FILE, "An error occurred while reading annotation metadata: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private IndexPersistence gipsyResources(ModuleNode moduleNode) {
+        return createPersistence(moduleNode, NAME, "gipsy",
+            outputDir -> new ResourcePersistence(NAME, options.dir() + "/META-INF/gipsy/", outputDir, logger));
+    }
+
+    /**
+     * Drops the annotation metadata of the class; registrations are removed per annotation kind in
+     * {@link #handleAnnotations(ClassNode, List, ModuleNode)}.
+     */
+    @Override
+    protected void removeStaleData(ClassNode classNode, ModuleNode moduleNode) {
+        if (metadata != null) {
+            metadata.remove(classNode.getName());
+        }
+    }
+
+    @Override
+    protected void removeContributions(List<IncrementalState.Contribution> contributions, ModuleNode moduleNode) {
+        if (metadata != null) {
+            for (IncrementalState.Contribution contribution : contributions) {
+                metadata.remove(contribution.getProvider());
+            }
+        }
+        for (int i = 0; i < delegates.length; i++) {
+            String kind = delegates[i].getKind();
+            for (IncrementalState.Contribution contribution : contributions) {
+                if (kind.equals(contribution.getKind())) {
+                    delegate(i, moduleNode).removeContributions(contributions, moduleNode);
+                    break;
+                }
+            }
+        }
+    }
+
+    @Override
+    protected void handleAnnotations(ClassNode classNode, List<AnnotationNode> annotations, ModuleNode moduleNode) {
+        if (metadata != null) {
+            metadata.record(classNode);
+        }
+
+        List<AnnotationNode>[] buckets = bucket(annotations);
+        for (int i = 0; i < delegates.length; i++) {
+            if (buckets[i] == null) {
+                continue;
+            }
+
+            IndexASTTransformation delegate = delegate(i, moduleNode);
+            delegate.removeStaleData(classNode, moduleNode);
+            delegate.handleAnnotations(classNode, buckets[i], moduleNode);
+        }
+    }
+
+    private IndexASTTransformation delegate(int index, ModuleNode moduleNode) {
+        IndexASTTransformation delegate = delegates[index];
+        if (!initialized[index]) {
+            delegate.options = options;
+            delegate.logger = logger;
+            delegate.state = state;
+            delegate.hierarchy = hierarchy;
+            delegate.symbols = symbols;
+            delegate.jarBatch = jarBatch;
+            delegate.initialize(moduleNode);
+            initialized[index] = true;
+            if (logDelegate == null) {
+                logDelegate = delegate;
+            }
+        }
+        return delegate;
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<AnnotationNode>[] bucket(List<AnnotationNode> annotations) {
+        List<AnnotationNode>[] buckets = new List[delegates.length];
+        for (AnnotationNode annotation : annotations) {
+            int index = indexOf(annotation);
+            if (buckets[index] == null) {
+                buckets[index] = new ArrayList<AnnotationNode>();
+            }
+            buckets[index].add(annotation);
+        }
+        return buckets;
+    }
+
+    @Override
+    protected void writeData(ModuleNode moduleNode) {
+        for (int i = 0; i < delegates.length; i++) {
+            if (initialized[i]) {
+                delegates[i].writeData(moduleNode);
+            }
+        }
+
+        if (metadata != null && metadata.isModified()) {
+            try {
+                metadataPersistence.writeBytes(AnnotationMetadata.FILE_NAME, metadata.toBytes());
+                metadataPersistence.commit();
+            } catch (IOException e) {
+                metadataPersistence.discard();
+                addError("An error occurred while writing annotation metadata: " + e.getMessage(), moduleNode.getContext());
+            }
+        }
+    }
+
+    @Override
+    protected void generateArtifacts(ModuleNode moduleNode) {
+        Map<String, Map<String, List<String>>> sections = sections(moduleNode);
+        if (getProviderRegistryClassName() != null) {
+            generateRegistry(sections);
+        }
+        if (isBinaryIndexEnabled() || isClassListEnabled()) {
+            writeGipsyResources(moduleNode, sections);
+        }
+        if (getNativeImageCoordinates() != null) {
+            writeNativeImageConfig(moduleNode, sections);
+        }
+    }
+
+    private Map<String, Map<String, List<String>>> sections(ModuleNode moduleNode) {
+        Map<String, Map<String, List<String>>> sections = new LinkedHashMap<String, Map<String, List<String>>>();
+        for (int i = 0; i < delegates.length; i++) {
+            sections.put(delegates[i].getIndexName(), delegate(i, moduleNode).getRegistrations());
+        }
+        return sections;
+    }
+
+    private void generateRegistry(Map<String, Map<String, List<String>>> sections) {
+        if (compilationUnit == null) {
+            return;
+        }
+
+        Map<String, byte[]> classes = ProviderRegistryGenerator.generate(getProviderRegistryClassName(),
+            sections.get(delegates[SERVICES].getIndexName()),
+            sections.get(delegates[TYPES].getIndexName()));
+        for (Map.Entry<String, byte[]> entry : classes.entrySet()) {
+            compilationUnit.getClasses().add(new GroovyClass(entry.getKey(), entry.getValue()));
+        }
+    }
+
+    private void writeGipsyResources(ModuleNode moduleNode, Map<String, Map<String, List<String>>> sections) {
+        IndexPersistence persistence = gipsyResources(moduleNode);
+        try {
+            if (isBinaryIndexEnabled()) {
+                persistence.writeBytes(INDEX_FILE_NAME, BinaryIndexWriter.write(sections));
+            }
+            if (isClassListEnabled()) {
+                persistence.writeBytes(CLASSLIST_FILE_NAME, classList(sections).getBytes(StandardCharsets.UTF_8));
+            }
+            persistence.commit();
+        } catch (IOException e) {
+            persistence.discard();
+            addError("An error occurred while writing META-INF/gipsy resources: " + e.getMessage(), moduleNode.getContext());
+        }
+    }
+
+    /**
+     * Lists every registered class and the types they are registered for, one internal name per line
+     * as expected by {@code -XX:SharedClassListFile}.
+     */
+    private static String classList(Map<String, Map<String, List<String>>> sections) {
+        Set<String> classes = new TreeSet<String>();
+        for (Map<String, List<String>> section : sections.values()) {
+            for (Map.Entry<String, List<String>> entry : section.entrySet()) {
+                if (!entry.getValue().isEmpty()) {
+                    classes.add(entry.getKey());
+                    classes.addAll(entry.getValue());
+                }
+            }
+        }
+
+        StringBuilder sb = new StringBuilder("# Generated by gipsy, merge into a -XX:SharedClassListFile\n");
+        for (String className : classes) {
+            sb.append(className.replace('.', '/')).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private void writeNativeImageConfig(ModuleNode moduleNode, Map<String, Map<String, List<String>>> sections) {
+        List<String> resources = isBinaryIndexEnabled() ? Collections.singletonList(GipsyIndex.RESOURCE_NAME) : Collections.<String>emptyList();
+        String index = "native-image/" + getNativeImageCoordinates();
+        IndexPersistence persistence = createPersistence(moduleNode, NAME, index,
+            outputDir -> new ResourcePersistence(NAME, options.dir() + "/META-INF/" + index + "/", outputDir, logger));
+        try {
+            persistence.writeBytes("reflect-config.json", NativeImageConfigWriter.reflectConfig(sections).getBytes(StandardCharsets.UTF_8));
+            persistence.writeBytes("resource-config.json", NativeImageConfigWriter.resourceConfig(sections, resources).getBytes(StandardCharsets.UTF_8));
+            persistence.commit();
+        } catch (IOException e) {
+            persistence.discard();
+            addError("An error occurred while writing native-image configuration: " + e.getMessage(), moduleNode.getContext());
+        }
+    }
+
+    @Override
+    protected void writeLog() {
+        // delegates share a single logger
+        if (logDelegate != null) {
+            logDelegate.writeLog();
+        }
+    }
+}
@@ -40,11 +40,29 @@ import javax.lang.model.element.AnnotationMirror;
 import javax.lang.model.element.AnnotationValue;
 import javax.lang.model.element.Element;
 import javax.tools.Diagnostic.Kind;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.List;
 
+/**
+ * Keeps the most recent messages in a bounded buffer, dropping the oldest ones. The capacity
+ * defaults to the system property {@code org.kordamp.gipsy.MESSAGE_BUFFER_SIZE}, or 100.
+ */
 public class DefaultMessager implements Messager {
-    private final List<Message> messages = new ArrayList<Message>();
+    private static final String MESSAGE_BUFFER_SIZE = "org.kordamp.gipsy.MESSAGE_BUFFER_SIZE";
+
+    private final int capacity;
+    private final Deque<Message> messages;
+
+    public DefaultMessager() {
+        this(Integer.getInteger(MESSAGE_BUFFER_SIZE, 100));
+    }
+
+    public DefaultMessager(int capacity) {
+        this.capacity = Math.max(capacity, 0);
+        this.messages = new ArrayDeque<Message>(Math.min(this.capacity, 16));
+    }
 
     @Override
     public void printMessage(Kind kind, CharSequence msg) {
@@ -62,16 +80,22 @@ public class DefaultMessager implements Messager {
     }
 
     @Override
-    public void printMessage(Kind kind, CharSequence msg, Element e, AnnotationMirror a, AnnotationValue v) {
-        messages.add(new Message(kind, msg, e, a, v));
+    public synchronized void printMessage(Kind kind, CharSequence msg, Element e, AnnotationMirror a, AnnotationValue v) {
+        if (capacity == 0) {
+            return;
+        }
+        if (messages.size() == capacity) {
+            messages.removeFirst();
+        }
+        messages.addLast(new Message(kind, msg, e, a, v));
     }
 
-    public void reset() {
+    public synchronized void reset() {
         messages.clear();
     }
 
-    public List<Message> messages() {
-        return messages;
+    public synchronized List<Message> messages() {
+        return new ArrayList<Message>(messages);
     }
 
     public static final class Message {
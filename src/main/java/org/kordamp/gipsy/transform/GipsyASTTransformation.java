@@ -17,43 +17,275 @@
  */
 package org.kordamp.gipsy.transform;
 
+import groovy.lang.GroovyClassLoader;
 import org.codehaus.groovy.ast.*;
 import org.codehaus.groovy.ast.expr.Expression;
 import org.codehaus.groovy.ast.expr.ListExpression;
 import org.codehaus.groovy.control.SourceUnit;
 import org.kordamp.jipsy.processor.CheckResult;
+import org.kordamp.jipsy.processor.LogLocation;
 import org.kordamp.jipsy.processor.Logger;
 import org.kordamp.jipsy.processor.Options;
 import org.kordamp.jipsy.processor.ProcessorLogger;
 import org.kordamp.jipsy.processor.service.ServiceProviderProcessor;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Set;
 
 /**
+ * Base class for the global transformations that register annotated classes in index files.
+ * <p>
+ * By default index files are written after each module with annotated classes. Setting the system
+ * property {@code org.kordamp.gipsy.DEFERRED_WRITES} to {@code true} collects registrations from
+ * every module of the compilation unit instead, writing each index file once after the last module
+ * has been visited. Writes are always deferred when {@code org.kordamp.gipsy.TARGET_JAR} is set, and
+ * the jar is rewritten once per compilation unit with the entries of every index.
+ * <p>
+ * Setting {@code org.kordamp.gipsy.INCREMENTAL_STATE} to {@code true} keeps an {@link IncrementalState}
+ * next to the output directory, or in the file named by {@code org.kordamp.gipsy.INCREMENTAL_STATE_FILE}.
+ * Registrations of recompiled sources are then replaced without reading
+ * every index file, and those of deleted sources are removed.
+ * <p>
+ * Setting {@code org.kordamp.gipsy.PROVIDER_REGISTRY} to a fully qualified class name generates a
+ * registry class with factories that create service providers directly, see {@link ProviderRegistryGenerator}.
+ * Setting {@code org.kordamp.gipsy.BINARY_INDEX} to {@code true} writes every registration to
+ * {@code META-INF/gipsy/index.bin}, see {@link org.kordamp.gipsy.runtime.GipsyIndex}. Setting
+ * {@code org.kordamp.gipsy.NATIVE_IMAGE} to {@code <group>/<artifact>} writes GraalVM native-image
+ * configuration for every registered class to {@code META-INF/native-image/<group>/<artifact>/}.
+ * Setting {@code org.kordamp.gipsy.CDS_CLASSLIST} to {@code true} lists every registered class in
+ * {@code META-INF/gipsy/cds.classlist}, for use with {@code -XX:SharedClassListFile}.
+ *
  * @author Andres Almiray
  */
 public abstract class GipsyASTTransformation extends AbstractASTTransformation {
+    private static final String DEFERRED_WRITES = "org.kordamp.gipsy.DEFERRED_WRITES";
+    private static final String INCREMENTAL_STATE = "org.kordamp.gipsy.INCREMENTAL_STATE";
+    private static final String INCREMENTAL_STATE_FILE = "org.kordamp.gipsy.INCREMENTAL_STATE_FILE";
+    private static final String TARGET_JAR = "org.kordamp.gipsy.TARGET_JAR";
+    private static final String PROVIDER_REGISTRY = "org.kordamp.gipsy.PROVIDER_REGISTRY";
+    private static final String BINARY_INDEX = "org.kordamp.gipsy.BINARY_INDEX";
+    private static final String NATIVE_IMAGE = "org.kordamp.gipsy.NATIVE_IMAGE";
+    private static final String CDS_CLASSLIST = "org.kordamp.gipsy.CDS_CLASSLIST";
+
     protected Options options;
     protected Logger logger;
+    protected IncrementalState state;
+    TypeHierarchy hierarchy = new TypeHierarchy();
+    SymbolTable symbols = new SymbolTable();
+    JarBatch jarBatch = new JarBatch();
     private boolean disabled;
+    private final boolean deferredWrites = Boolean.getBoolean(DEFERRED_WRITES) || targetJar() != null;
+    private final Set<ModuleNode> visitedModules = Collections.newSetFromMap(new IdentityHashMap<ModuleNode, Boolean>());
+    private final Object visitLock = new Object();
+    private ModuleNode initializedModule;
+    private boolean pendingWrites;
+    private boolean stateLoaded;
+    // temporary files of interrupted commits are looked for once per compilation unit
+    private boolean leftoversDeleted;
+    private ModuleNode sourceModule;
+    private String sourceName;
 
+    /**
+     * Groovy creates one instance of a global transformation per compilation unit, so the fields of
+     * this class hold the state of a single unit and are never shared with concurrent units. Visits
+     * of the modules of a unit are serialized, in case they are run in parallel.
+     */
     @Override
     public void visit(ASTNode[] nodes, SourceUnit source) {
         if (nodes.length != 1 || !(nodes[0] instanceof ModuleNode)) {
             return;
         }
 
-        ModuleNode moduleNode = (ModuleNode) nodes[0];
-        initialize(moduleNode);
-        if (disabled) {
+        synchronized (visitLock) {
+            visit((ModuleNode) nodes[0]);
+        }
+    }
+
+    private void visit(ModuleNode moduleNode) {
+        loadState(moduleNode);
+        String source = state != null ? sourceName(moduleNode) : null;
+        List<IncrementalState.Contribution> previous = source != null ? state.remove(source) : Collections.<IncrementalState.Contribution>emptyList();
+
+        boolean annotated;
+        try (GipsyPhase phase = GipsyPhase.begin("scan", moduleNode)) {
+            annotated = hasAnnotations(moduleNode);
+        }
+        if (annotated || !previous.isEmpty()) {
+            ensureInitialized(moduleNode);
+            if (!disabled) {
+                if (!previous.isEmpty()) {
+                    removeContributions(previous, moduleNode);
+                    pendingWrites = true;
+                }
+                if (annotated) {
+                    visitModule(moduleNode);
+                }
+            }
+        }
+
+        boolean lastModule = isLastModule(moduleNode);
+        if (lastModule && state != null) {
+            List<IncrementalState.Contribution> deleted = state.removeDeletedSources();
+            if (!deleted.isEmpty()) {
+                ensureInitialized(moduleNode);
+                if (!disabled) {
+                    removeContributions(deleted, moduleNode);
+                    pendingWrites = true;
+                }
+            }
+        }
+
+        if (pendingWrites && (!deferredWrites || lastModule)) {
+            pendingWrites = false;
+            try (GipsyPhase phase = GipsyPhase.begin("writeData", moduleNode)) {
+                writeData(moduleNode);
+            }
+        }
+
+        if (lastModule && isFullIndexRequired()) {
+            ensureInitialized(moduleNode);
+            if (!disabled) {
+                try (GipsyPhase phase = GipsyPhase.begin("generateArtifacts", moduleNode)) {
+                    generateArtifacts(moduleNode);
+                }
+            }
+        }
+
+        if (lastModule && !jarBatch.isEmpty()) {
+            try {
+                jarBatch.flush(logger);
+            } catch (IOException e) {
+                addError("An error occurred while writing " + targetJar() + ": " + e.getMessage(), moduleNode.getContext());
+            }
+        }
+
+        if (lastModule && state != null) {
+            saveState();
+        }
+
+        if (lastModule && initializedModule != null && !disabled && options.logging()) {
+            writeLog();
+        }
+    }
+
+    private void ensureInitialized(ModuleNode moduleNode) {
+        if (initializedModule == null || (!deferredWrites && initializedModule != moduleNode)) {
+            try (GipsyPhase phase = GipsyPhase.begin("initialize", moduleNode)) {
+                initialize(moduleNode);
+            }
+            initializedModule = moduleNode;
+        }
+    }
+
+    private void loadState(ModuleNode moduleNode) {
+        if (stateLoaded) {
             return;
         }
+        stateLoaded = true;
+
+        File outputDir = moduleNode.getContext().getConfiguration().getTargetDirectory();
+        if (Boolean.getBoolean(INCREMENTAL_STATE) && outputDir != null) {
+            String stateFile = System.getProperty(INCREMENTAL_STATE_FILE);
+            state = IncrementalState.load(stateFile != null && stateFile.trim().length() > 0 ? new File(stateFile) : IncrementalState.stateFileFor(outputDir));
+            if (!state.isComplete() && !hasIndexFiles(outputDir)) {
+                state.markComplete();
+            }
+        }
+    }
+
+    // index files a state that is not complete could not account for
+    private boolean hasIndexFiles(File outputDir) {
+        initializeOptions();
+        String targetJar = targetJar();
+        if (targetJar != null) {
+            return Files.exists(Paths.get(targetJar));
+        }
+        for (String index : getIndexNames()) {
+            String[] names = new File(outputDir, options.dir() + "/META-INF/" + index).list();
+            if (names != null && names.length > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void saveState() {
+        try {
+            state.save();
+        } catch (IOException e) {
+            if (logger != null) {
+                logger.warning(LogLocation.LOG_FILE, "An error occurred while saving incremental state: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Returns the absolute path of the file the module was compiled from, or {@code null} when it
+     * was not compiled from a file.
+     */
+    String sourceName(ModuleNode moduleNode) {
+        if (sourceModule != moduleNode) {
+            sourceModule = moduleNode;
+            sourceName = null;
+            SourceUnit source = moduleNode.getContext();
+            if (source != null && source.getName() != null) {
+                File file = new File(source.getName());
+                if (file.isFile()) {
+                    sourceName = file.getAbsoluteFile().toPath().normalize().toString();
+                }
+            }
+        }
+        return sourceName;
+    }
+
+    /**
+     * Cheap check performed before any initialization, so that modules without annotated
+     * classes or packages do no filesystem work.
+     */
+    protected boolean hasAnnotations(ModuleNode moduleNode) {
+        PackageNode modulePackage = moduleNode.getPackage();
+        if (modulePackage != null && hasAnnotation(modulePackage)) {
+            return true;
+        }
+        for (ClassNode classNode : moduleNode.getClasses()) {
+            if (hasAnnotation(classNode)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean hasAnnotation(AnnotatedNode node) {
+        for (AnnotationNode annotation : node.getAnnotations()) {
+            if (accepts(annotation)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Whether the given annotation is handled by this transformation.
+     */
+    protected abstract boolean accepts(AnnotationNode annotation);
 
+    /**
+     * Names of the directories under {@code META-INF} holding the index files this transformation
+     * maintains.
+     */
+    protected abstract List<String> getIndexNames();
+
+    protected void visitModule(ModuleNode moduleNode) {
         String mainClassName = moduleNode.getMainClassName();
         PackageNode modulePackage = moduleNode.getPackage();
-        List<AnnotationNode> packageAnnotations = modulePackage != null ? modulePackage.getAnnotations() : new ArrayList<AnnotationNode>();
+        List<AnnotationNode> packageAnnotations = modulePackage != null ? findAnnotations(modulePackage) : Collections.<AnnotationNode>emptyList();
 
         for (ClassNode classNode : moduleNode.getClasses()) {
             if (classNode.isDerivedFrom(ClassHelper.SCRIPT_TYPE) &&
@@ -63,7 +295,7 @@ public abstract class GipsyASTTransformation extends AbstractASTTransformation {
                 continue;
             }
 
-            List<AnnotationNode> annotations = classNode.getAnnotations(getAnnotationClassNode());
+            List<AnnotationNode> annotations = findAnnotations(classNode);
             if (annotations.isEmpty()) {
                 continue;
             }
@@ -71,27 +303,226 @@ public abstract class GipsyASTTransformation extends AbstractASTTransformation {
         }
     }
 
+    private List<AnnotationNode> findAnnotations(AnnotatedNode node) {
+        List<AnnotationNode> annotations = null;
+        for (AnnotationNode annotation : node.getAnnotations()) {
+            if (accepts(annotation)) {
+                if (annotations == null) {
+                    annotations = new ArrayList<AnnotationNode>();
+                }
+                annotations.add(annotation);
+            }
+        }
+        return annotations != null ? annotations : Collections.<AnnotationNode>emptyList();
+    }
+
+    private boolean isLastModule(ModuleNode moduleNode) {
+        visitedModules.add(moduleNode);
+        CompileUnit compileUnit = moduleNode.getUnit();
+        return compileUnit == null || visitedModules.size() >= compileUnit.getModules().size();
+    }
+
     protected void initialize(ModuleNode moduleNode) {
+        initializeOptions();
+    }
+
+    private void initializeOptions() {
+        if (options != null) {
+            // shared with an enclosing transformation or already set for this compilation
+            return;
+        }
         options = new Options(ServiceProviderProcessor.NAME, Collections.<String, String>emptyMap());
-        if (options.disabled()) {
+        disabled = options.disabled();
+        if (disabled) {
             return;
         }
-        logger = new ProcessorLogger(new DefaultMessager(), options);
+        logger = new GipsyLogger(new ProcessorLogger(new DefaultMessager(), options), options);
+    }
+
+    /**
+     * Creates the persistence for the index directory {@code META-INF/<index>/}. Entries go into the
+     * jar named by the system property {@code org.kordamp.gipsy.TARGET_JAR} when set, are kept in
+     * memory when the compilation has no target directory, and are written to the target directory
+     * by the persistence {@code files} creates otherwise.
+     */
+    protected IndexPersistence createPersistence(ModuleNode moduleNode, String name, String index, FilePersistenceFactory files) {
+        String path = options.dir() + "/META-INF/" + index + "/";
+        String targetJar = targetJar();
+        if (targetJar != null) {
+            JarPersistence persistence = new JarPersistence(name, logger, path, Paths.get(targetJar), jarBatch);
+            if (persistence.getReadFailure() != null) {
+                addError("An error occurred while reading " + targetJar + ": " + persistence.getReadFailure().getMessage(), moduleNode.getContext());
+            }
+            return persistence;
+        }
+
+        GroovyClassLoader classLoader = inMemoryClassLoader(moduleNode);
+        if (classLoader != null) {
+            return new MemoryPersistence(name, logger, path, classLoader);
+        }
+        return files.create(moduleNode.getContext().getConfiguration().getTargetDirectory());
+    }
+
+    private static String targetJar() {
+        String targetJar = System.getProperty(TARGET_JAR);
+        return targetJar != null && targetJar.trim().length() > 0 ? targetJar : null;
+    }
+
+    protected interface FilePersistenceFactory {
+        IndexPersistence create(File outputDir);
+    }
+
+    /**
+     * Returns the class loader that should serve index files from memory, which is the case for
+     * compilations without a target directory such as {@code GroovyClassLoader.parseClass()}, or
+     * {@code null} when index files are written to disk.
+     */
+    protected GroovyClassLoader inMemoryClassLoader(ModuleNode moduleNode) {
+        SourceUnit source = moduleNode.getContext();
+        if (source.getConfiguration().getTargetDirectory() != null || AbstractFilePersistence.hasDefaultTargetDir()) {
+            return null;
+        }
+        return source.getClassLoader();
+    }
+
+    /**
+     * Returns the name of the provider registry class to generate, or {@code null} when disabled.
+     */
+    protected String getProviderRegistryClassName() {
+        String className = System.getProperty(PROVIDER_REGISTRY);
+        return className != null && className.trim().length() > 0 ? className.trim() : null;
+    }
+
+    /**
+     * Whether every existing index file has to be read on initialization, because the complete set of
+     * registrations is needed and not only those touched by the compilation.
+     */
+    protected boolean isFullIndexRequired() {
+        return getProviderRegistryClassName() != null || isBinaryIndexEnabled() || getNativeImageCoordinates() != null
+            || isClassListEnabled();
+    }
+
+    protected boolean isBinaryIndexEnabled() {
+        return Boolean.getBoolean(BINARY_INDEX);
     }
 
-    protected abstract ClassNode getAnnotationClassNode();
+    protected boolean isClassListEnabled() {
+        return Boolean.getBoolean(CDS_CLASSLIST);
+    }
+
+    /**
+     * Returns the {@code <group>/<artifact>} directory for native-image configuration, or {@code null}
+     * when disabled.
+     */
+    protected String getNativeImageCoordinates() {
+        String coordinates = System.getProperty(NATIVE_IMAGE);
+        return coordinates != null && coordinates.trim().length() > 0 ? coordinates.trim() : null;
+    }
 
     protected final void process(ClassNode classNode, List<AnnotationNode> annotations, ModuleNode moduleNode) {
-        removeStaleData(classNode, moduleNode);
-        handleAnnotations(classNode, annotations, moduleNode);
-        writeData();
+        try (GipsyPhase phase = GipsyPhase.begin("removeStaleData", moduleNode)) {
+            removeStaleData(classNode, moduleNode);
+        }
+        try (GipsyPhase phase = GipsyPhase.begin("handleAnnotations", moduleNode)) {
+            phase.annotations(annotations.size());
+            handleAnnotations(classNode, annotations, moduleNode);
+        }
+        pendingWrites = true;
     }
 
     protected abstract void removeStaleData(ClassNode classNode, ModuleNode moduleNode);
 
+    /**
+     * Removes the given registrations recorded by a previous compilation.
+     */
+    protected abstract void removeContributions(List<IncrementalState.Contribution> contributions, ModuleNode moduleNode);
+
     protected abstract void handleAnnotations(ClassNode classNode, List<AnnotationNode> annotations, ModuleNode moduleNode);
 
-    protected abstract void writeData();
+    /**
+     * Writes the index files. Failures are reported as errors of the given module, so that the
+     * compilation does not succeed with index files missing.
+     */
+    protected abstract void writeData(ModuleNode moduleNode);
+
+    /**
+     * Generates the enabled artifacts that need every registration, such as the provider registry
+     * class. Called once per compilation unit, after index files have been written.
+     */
+    protected void generateArtifacts(ModuleNode moduleNode) {
+        // noop
+    }
+
+    /**
+     * Writes the log file. Called once per compilation unit, when logging is enabled.
+     */
+    protected void writeLog() {
+        // noop
+    }
+
+    /**
+     * Writes one file per entry of the store, under the index directory lock, or deletes the index
+     * when the store has no entries.
+     */
+    protected void writeIndex(IndexPersistence persistence, ProviderStore data, ModuleNode moduleNode) {
+        logger.note(LogLocation.LOG_FILE, "Writing output");
+        if (data.isEmpty()) {
+            try {
+                persistence.delete();
+            } catch (IOException e) {
+                addError("An error occurred while deleting data file: " + e.getMessage(), moduleNode.getContext());
+            }
+            return;
+        }
+
+        try {
+            if (!persistence.lock()) {
+                addWarning("Could not lock the index files of " + moduleNode.getContext().getConfiguration().getTargetDirectory()
+                    + ", writing them without the lock", moduleNode.getContext());
+            }
+            for (String name : data.entryNames()) {
+                persistence.write(name, data.toProviderNamesList(name));
+            }
+            persistence.commit();
+            if (!leftoversDeleted) {
+                leftoversDeleted = true;
+                persistence.deleteLeftovers();
+            }
+        } catch (IOException e) {
+            persistence.discard();
+            addError("An error occurred while writing data files: " + e.getMessage(), moduleNode.getContext());
+        } finally {
+            try {
+                persistence.unlock();
+            } catch (IOException e) {
+                logger.warning(LogLocation.LOG_FILE, "An error occurred while releasing lock: " + e.getMessage());
+            }
+        }
+    }
+
+    protected void writeLogFile(IndexPersistence persistence) {
+        try {
+            persistence.writeLog();
+            persistence.commit();
+        } catch (IOException e) {
+            persistence.discard();
+            logger.warning(LogLocation.LOG_FILE, "An error occurred while writing log file: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Parses the provider names of an index file, skipping blank lines and comments.
+     */
+    protected static List<String> providerNames(CharSequence providerNamesList) {
+        List<String> names = new ArrayList<String>();
+        for (String line : providerNamesList.toString().split("\\r?\\n")) {
+            String name = line.trim();
+            if (name.length() > 0 && name.charAt(0) != '#') {
+                names.add(name);
+            }
+        }
+        return names;
+    }
 
     public static boolean hasNoArgsConstructor(ClassNode classNode) {
         for (ConstructorNode constructorNode : classNode.getDeclaredConstructors()) {
@@ -103,8 +534,22 @@ public abstract class GipsyASTTransformation extends AbstractASTTransformation {
         return classNode.getDeclaredConstructors().size() == 0;
     }
 
+    /**
+     * Memoized variant of {@link #hasNoArgsConstructor(ClassNode)}.
+     */
+    protected boolean hasNoArgsConstructorCached(ClassNode classNode) {
+        return hierarchy.hasNoArgsConstructor(classNode);
+    }
+
+    /**
+     * Class name symbols of the compilation unit, shared by every index it writes.
+     */
+    protected SymbolTable getSymbols() {
+        return symbols;
+    }
+
     protected CheckResult isImplementation(ClassNode classNode, ClassNode type) {
-        if (classNode.implementsInterface(type)) {
+        if (hierarchy.implementsInterface(classNode, type)) {
             return CheckResult.OK;
         }
 
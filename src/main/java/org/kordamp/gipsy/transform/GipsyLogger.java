@@ -0,0 +1,63 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2013-2023 Andres Almiray
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.kordamp.gipsy.transform;
+
+import org.kordamp.jipsy.processor.LogLocation;
+import org.kordamp.jipsy.processor.Logger;
+import org.kordamp.jipsy.processor.Options;
+
+/**
+ * Levelled {@link Logger}. Notes are dropped before reaching the delegate unless the verbose or
+ * logging options are set; callers building messages should check {@link #isNoteEnabled()} first.
+ *
+ * @author Andres Almiray
+ */
+public final class GipsyLogger implements Logger {
+    private final Logger delegate;
+    private final boolean noteEnabled;
+
+    public GipsyLogger(Logger delegate, Options options) {
+        this.delegate = delegate;
+        this.noteEnabled = options.verbose() || options.logging();
+    }
+
+    public static boolean isNoteEnabled(Logger logger) {
+        return !(logger instanceof GipsyLogger) || ((GipsyLogger) logger).isNoteEnabled();
+    }
+
+    public boolean isNoteEnabled() {
+        return noteEnabled;
+    }
+
+    @Override
+    public void note(LogLocation location, String message) {
+        if (noteEnabled) {
+            delegate.note(location, message);
+        }
+    }
+
+    @Override
+    public void warning(LogLocation location, String message) {
+        delegate.warning(location, message);
+    }
+
+    @Override
+    public String getFileContent() {
+        return delegate.getFileContent();
+    }
+}
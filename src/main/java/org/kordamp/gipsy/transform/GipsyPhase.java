@@ -0,0 +1,88 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2013-2023 Andres Almiray
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.kordamp.gipsy.transform;
+
+import org.codehaus.groovy.ast.ModuleNode;
+
+/**
+ * Reports the time gipsy spends in each phase of a transformation as a Java Flight Recorder event,
+ * together with the module being processed, the number of annotations handled and the I/O performed.
+ * <p>
+ * On runtimes without {@code jdk.jfr}, or when no recording has the event enabled, phases are
+ * no-ops.
+ *
+ * @author Andres Almiray
+ */
+public class GipsyPhase implements AutoCloseable {
+    static final GipsyPhase NOOP = new GipsyPhase();
+
+    private static final boolean JFR_AVAILABLE = isJfrAvailable();
+
+    GipsyPhase() {
+    }
+
+    public static GipsyPhase begin(String name, ModuleNode moduleNode) {
+        if (!JFR_AVAILABLE) {
+            return NOOP;
+        }
+        return JfrPhase.begin(name, moduleName(moduleNode));
+    }
+
+    /**
+     * Records the number of annotations handled by this phase.
+     */
+    public void annotations(int count) {
+        // noop
+    }
+
+    @Override
+    public void close() {
+        // noop
+    }
+
+    static void fileRead() {
+        if (JFR_AVAILABLE) {
+            JfrPhase.fileRead();
+        }
+    }
+
+    static void fileWritten(long bytes) {
+        if (JFR_AVAILABLE) {
+            JfrPhase.fileWritten(bytes);
+        }
+    }
+
+    private static String moduleName(ModuleNode moduleNode) {
+        if (moduleNode == null) {
+            return null;
+        }
+        if (moduleNode.getContext() != null && moduleNode.getContext().getName() != null) {
+            return moduleNode.getContext().getName();
+        }
+        return moduleNode.getDescription();
+    }
+
+    private static boolean isJfrAvailable() {
+        try {
+            Class.forName("jdk.jfr.Event", false, GipsyPhase.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2013-2023 Andres Almiray
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.kordamp.gipsy.transform;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * @author Andres Almiray
+ */
+@Name("org.kordamp.gipsy.Phase")
+@Label("Gipsy Phase")
+@Category({"Groovy", "Gipsy"})
+@Description("Time spent by gipsy transformations on a source unit")
+final class GipsyPhaseEvent extends Event {
+    @Label("Phase")
+    String phase;
+
+    @Label("Module")
+    String module;
+
+    @Label("Annotations")
+    int annotations;
+
+    @Label("Files Read")
+    int filesRead;
+
+    @Label("Files Written")
+    int filesWritten;
+
+    @Label("Bytes Written")
+    @DataAmount
+    long bytesWritten;
+}
@@ -0,0 +1,353 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2013-2023 Andres Almiray
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.kordamp.gipsy.transform;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Maps each source file to the providers it contributed to the index files, so that incremental
+ * compilations only touch the entries of recompiled sources and drop those of deleted sources.
+ * <p>
+ * Deleted sources are found through the modification time of their directories, recorded when the
+ * state is saved. Only directories whose time changed since have their sources checked, so the cost
+ * follows the directories touched rather than the size of the project. Sources of a directory that
+ * no longer exists are kept, since the directory may just not be where it was recorded.
+ * <p>
+ * A state is {@linkplain #isComplete() complete} when it knows every contribution in the index
+ * files, which only holds when it was started against empty index files and has been kept since.
+ * Index files must be read in full as long as it is not.
+ * <p>
+ * The state is stored in a binary file next to the output directory, so that it is not packaged
+ * with the compiled classes. It holds a string table followed by, for each source, triples of
+ * string table indices (kind, type, provider), and by the recorded time of each source directory.
+ * Paths are stored relative to the directory of the state file, so that the state stays valid when
+ * the project is moved along with it.
+ *
+ * @author Andres Almiray
+ */
+public final class IncrementalState {
+    private static final int MAGIC = 0x47495053;
+    private static final int VERSION = 3;
+    // times closer to now than this may not reflect a change made within the same tick of a coarse
+    // file system clock, so they are not trusted
+    private static final long UNSETTLED_MILLIS = 2000;
+    private static final long UNKNOWN = 0L;
+
+    private final File file;
+    private final Path base;
+    private final Map<String, List<Contribution>> contributions = new LinkedHashMap<String, List<Contribution>>();
+    private final Map<String, Set<String>> sourcesByDirectory = new HashMap<String, Set<String>>();
+    private final Map<String, Long> directoryTimes = new HashMap<String, Long>();
+    private boolean loaded;
+    private boolean complete;
+    private boolean modified;
+
+    private IncrementalState(File file) {
+        this.file = file.getAbsoluteFile();
+        this.base = this.file.getParentFile().toPath();
+    }
+
+    /**
+     * Returns the state file associated with the given output directory, a sibling of it.
+     */
+    public static File stateFileFor(File outputDir) {
+        File dir = outputDir.getAbsoluteFile();
+        return new File(dir.getParentFile(), dir.getName() + ".gipsy");
+    }
+
+    /**
+     * Reads the given state file. A missing, unreadable or incompatible file yields an empty state
+     * for which {@link #isLoaded()} returns {@code false}.
+     */
+    public static IncrementalState load(File file) {
+        IncrementalState state = new IncrementalState(file);
+        if (!file.isFile()) {
+            return state;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file.toPath())))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return state;
+            }
+            boolean complete = in.readBoolean();
+            String[] strings = new String[in.readInt()];
+            for (int i = 0; i < strings.length; i++) {
+                strings[i] = in.readUTF();
+            }
+            int sources = in.readInt();
+            for (int i = 0; i < sources; i++) {
+                String source = state.resolve(strings[in.readInt()]);
+                int count = in.readInt();
+                List<Contribution> list = new ArrayList<Contribution>(count);
+                for (int j = 0; j < count; j++) {
+                    list.add(new Contribution(strings[in.readInt()], strings[in.readInt()], strings[in.readInt()]));
+                }
+                state.contributions.put(source, list);
+                state.sources(directoryOf(source)).add(source);
+            }
+            int directories = in.readInt();
+            for (int i = 0; i < directories; i++) {
+                state.directoryTimes.put(state.resolve(strings[in.readInt()]), in.readLong());
+            }
+            state.loaded = true;
+            state.complete = complete;
+        } catch (IOException | RuntimeException e) {
+            state.contributions.clear();
+            state.sourcesByDirectory.clear();
+            state.directoryTimes.clear();
+        }
+        return state;
+    }
+
+    /**
+     * Whether this state was read from a previous compilation.
+     */
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    /**
+     * Whether this state knows every contribution in the index files, so that they need not be
+     * read in full.
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * Declares that the index files hold no contribution this state does not know, as is the case
+     * when they are empty. The state is complete from then on.
+     */
+    public void markComplete() {
+        if (!complete) {
+            complete = true;
+            modified = true;
+        }
+    }
+
+    /**
+     * Forgets and returns the contributions of a source that is being recompiled.
+     */
+    public List<Contribution> remove(String source) {
+        List<Contribution> list = contributions.remove(source);
+        if (list == null) {
+            return Collections.emptyList();
+        }
+        sources(directoryOf(source)).remove(source);
+        modified = true;
+        return list;
+    }
+
+    public void record(String source, String kind, String type, String provider) {
+        List<Contribution> list = contributions.get(source);
+        if (list == null) {
+            list = new ArrayList<Contribution>();
+            contributions.put(source, list);
+            sources(directoryOf(source)).add(source);
+        }
+        list.add(new Contribution(kind, type, provider));
+        modified = true;
+    }
+
+    /**
+     * Forgets and returns the contributions of every source file that no longer exists. Sources are
+     * only checked in directories modified since their time was recorded; those of directories that
+     * do not exist are left alone.
+     */
+    public List<Contribution> removeDeletedSources() {
+        List<Contribution> removed = new ArrayList<Contribution>();
+        for (Map.Entry<String, Set<String>> entry : sourcesByDirectory.entrySet()) {
+            String directory = entry.getKey();
+            File dir = new File(directory);
+            if (!dir.isDirectory()) {
+                continue;
+            }
+            long time = dir.lastModified();
+            Long recorded = directoryTimes.get(directory);
+            if (recorded != null && recorded != UNKNOWN && recorded == time) {
+                continue;
+            }
+
+            for (String source : new ArrayList<String>(entry.getValue())) {
+                if (!new File(source).exists()) {
+                    removed.addAll(contributions.remove(source));
+                    entry.getValue().remove(source);
+                }
+            }
+            directoryTimes.put(directory, settled(time));
+            modified = true;
+        }
+        return removed;
+    }
+
+    private Set<String> sources(String directory) {
+        Set<String> sources = sourcesByDirectory.get(directory);
+        if (sources == null) {
+            sources = new LinkedHashSet<String>();
+            sourcesByDirectory.put(directory, sources);
+        }
+        return sources;
+    }
+
+    private static String directoryOf(String source) {
+        String directory = new File(source).getParent();
+        return directory != null ? directory : "";
+    }
+
+    private String resolve(String path) {
+        return base.resolve(path).normalize().toString();
+    }
+
+    private String relativize(String path) {
+        try {
+            return base.relativize(Paths.get(path)).toString();
+        } catch (IllegalArgumentException e) {
+            // on another file system root
+            return path;
+        }
+    }
+
+    private static long settled(long time) {
+        return System.currentTimeMillis() - time < UNSETTLED_MILLIS ? UNKNOWN : time;
+    }
+
+    public void save() throws IOException {
+        if (!modified) {
+            return;
+        }
+
+        // directories of sources recorded during this compilation, and of none any more
+        for (Map.Entry<String, Set<String>> entry : sourcesByDirectory.entrySet()) {
+            if (entry.getValue().isEmpty()) {
+                directoryTimes.remove(entry.getKey());
+            } else if (!directoryTimes.containsKey(entry.getKey())) {
+                directoryTimes.put(entry.getKey(), settled(new File(entry.getKey()).lastModified()));
+            }
+        }
+
+        Map<String, String> paths = new HashMap<String, String>();
+        for (String source : contributions.keySet()) {
+            paths.put(source, relativize(source));
+        }
+        for (String directory : directoryTimes.keySet()) {
+            paths.put(directory, relativize(directory));
+        }
+
+        Map<String, Integer> indices = new LinkedHashMap<String, Integer>();
+        for (Map.Entry<String, List<Contribution>> entry : contributions.entrySet()) {
+            indexOf(indices, paths.get(entry.getKey()));
+            for (Contribution contribution : entry.getValue()) {
+                indexOf(indices, contribution.kind);
+                indexOf(indices, contribution.type);
+                indexOf(indices, contribution.provider);
+            }
+        }
+        for (String directory : directoryTimes.keySet()) {
+            indexOf(indices, paths.get(directory));
+        }
+
+        Path target = file.toPath();
+        Files.createDirectories(target.getParent());
+        Path temp = Files.createTempFile(target.getParent(), file.getName() + ".", ".gipsy.tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeBoolean(complete);
+                out.writeInt(indices.size());
+                for (String s : indices.keySet()) {
+                    out.writeUTF(s);
+                }
+                out.writeInt(contributions.size());
+                for (Map.Entry<String, List<Contribution>> entry : contributions.entrySet()) {
+                    out.writeInt(indices.get(paths.get(entry.getKey())));
+                    out.writeInt(entry.getValue().size());
+                    for (Contribution contribution : entry.getValue()) {
+                        out.writeInt(indices.get(contribution.kind));
+                        out.writeInt(indices.get(contribution.type));
+                        out.writeInt(indices.get(contribution.provider));
+                    }
+                }
+                out.writeInt(directoryTimes.size());
+                for (Map.Entry<String, Long> entry : directoryTimes.entrySet()) {
+                    out.writeInt(indices.get(paths.get(entry.getKey())));
+                    out.writeLong(entry.getValue());
+                }
+            }
+            try {
+                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        modified = false;
+    }
+
+    private static void indexOf(Map<String, Integer> indices, String s) {
+        if (!indices.containsKey(s)) {
+            indices.put(s, indices.size());
+        }
+    }
+
+    /**
+     * A provider registered for a type in the index identified by {@code kind}.
+     */
+    public static final class Contribution {
+        private final String kind;
+        private final String type;
+        private final String provider;
+
+        public Contribution(String kind, String type, String provider) {
+            this.kind = kind;
+            this.type = type;
+            this.provider = provider;
+        }
+
+        public String getKind() {
+            return kind;
+        }
+
+        public String getType() {
+            return type;
+        }
+
+        public String getProvider() {
+            return provider;
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2013-2023 Andres Almiray
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.kordamp.gipsy.transform;
+
+import org.codehaus.groovy.ast.AnnotationNode;
+import org.codehaus.groovy.ast.ClassNode;
+import org.codehaus.groovy.ast.ModuleNode;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Base class for the transformations that register the classes carrying one annotation in one
+ * index directory, {@code META-INF/<index>/}.
+ *
+ * @author Andres Almiray
+ */
+public abstract class IndexASTTransformation extends GipsyASTTransformation {
+    protected abstract ClassNode getAnnotationClassNode();
+
+    /**
+     * Name of the directory under {@code META-INF} holding the index files of this transformation.
+     */
+    protected abstract String getIndexName();
+
+    @Override
+    protected List<String> getIndexNames() {
+        return Collections.singletonList(getIndexName());
+    }
+
+    /**
+     * Identifies the index this transformation contributes to in the {@link IncrementalState}.
+     */
+    protected String getKind() {
+        return getAnnotationClassNode().getName();
+    }
+
+    @Override
+    protected boolean accepts(AnnotationNode annotation) {
+        return getAnnotationClassNode().equals(annotation.getClassNode());
+    }
+
+    @Override
+    protected void removeContributions(List<IncrementalState.Contribution> contributions, ModuleNode moduleNode) {
+        String kind = getKind();
+        for (IncrementalState.Contribution contribution : contributions) {
+            if (kind.equals(contribution.getKind())) {
+                removeProvider(contribution.getType(), contribution.getProvider());
+            }
+        }
+    }
+
+    protected abstract void removeProvider(String typeName, String providerName);
+
+    protected void recordContribution(ModuleNode moduleNode, String typeName, ClassNode provider) {
+        if (state == null) {
+            return;
+        }
+        String source = sourceName(moduleNode);
+        if (source != null) {
+            state.record(source, getKind(), typeName, provider.getName());
+        }
+    }
+
+    /**
+     * Returns the provider names registered per type, including those read from existing index files.
+     */
+    protected abstract Map<String, List<String>> getRegistrations();
+}
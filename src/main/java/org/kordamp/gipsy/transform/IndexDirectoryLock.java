@@ -0,0 +1,137 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2013-2023 Andres Almiray
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.kordamp.gipsy.transform;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Cross-process lock guarding the write cycles of the index directories of an output directory.
+ * <p>
+ * The lock file sits next to the output directory, see {@link #lockFileFor(File)}, so every process
+ * writing that directory uses the same file whatever its temporary directory or user, while nothing
+ * extra ends up in the compiler output. A JVM wide lock per lock file keeps compilations running in
+ * the same daemon from tripping over each other's file locks.
+ *
+ * @author Andres Almiray
+ */
+final class IndexDirectoryLock {
+    private static final long POLL_INTERVAL_MILLIS = 10;
+    private static final ConcurrentMap<Path, ReentrantLock> LOCKS = new ConcurrentHashMap<Path, ReentrantLock>();
+
+    private final Path lockFile;
+    private final ReentrantLock lock;
+    private final long timeoutMillis;
+    private FileChannel channel;
+    private FileLock fileLock;
+    private boolean locked;
+
+    IndexDirectoryLock(File lockFile, long timeoutMillis) {
+        this.lockFile = lockFile.getAbsoluteFile().toPath().normalize();
+        this.lock = LOCKS.computeIfAbsent(this.lockFile, path -> new ReentrantLock());
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Returns the lock file of an output directory, a sibling of it.
+     */
+    static File lockFileFor(File outputDir) {
+        File dir = outputDir.getAbsoluteFile();
+        return new File(dir.getParentFile(), dir.getName() + ".gipsy.lock");
+    }
+
+    /**
+     * Acquires the lock, waiting at most the configured timeout.
+     *
+     * @return {@code false} if the lock could not be acquired in time
+     */
+    boolean lock() throws IOException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        try {
+            if (!lock.tryLock(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                return false;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+
+        if (lock.getHoldCount() > 1) {
+            // this thread already owns the file lock
+            locked = true;
+            return true;
+        }
+
+        try {
+            Files.createDirectories(lockFile.getParent());
+            channel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            while ((fileLock = channel.tryLock()) == null) {
+                if (System.nanoTime() - deadline > 0) {
+                    release();
+                    return false;
+                }
+                Thread.sleep(POLL_INTERVAL_MILLIS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            release();
+            return false;
+        } catch (IOException | RuntimeException e) {
+            release();
+            throw e;
+        }
+
+        locked = true;
+        return true;
+    }
+
+    boolean isLocked() {
+        return locked;
+    }
+
+    void unlock() throws IOException {
+        if (locked) {
+            locked = false;
+            release();
+        }
+    }
+
+    private void release() throws IOException {
+        try {
+            if (fileLock != null) {
+                fileLock.release();
+            }
+            if (channel != null) {
+                channel.close();
+            }
+        } finally {
+            fileLock = null;
+            channel = null;
+            lock.unlock();
+        }
+    }
+}
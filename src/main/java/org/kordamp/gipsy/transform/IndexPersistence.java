@@ -0,0 +1,64 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2013-2023 Andres Almiray
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.kordamp.gipsy.transform;
+
+import org.kordamp.jipsy.processor.Persistence;
+
+import java.io.IOException;
+
+/**
+ * {@link Persistence} whose writes are staged until {@link #commit()}.
+ *
+ * @author Andres Almiray
+ */
+public interface IndexPersistence extends Persistence {
+    /**
+     * Records a provider whose registrations are being recomputed.
+     */
+    void markStale(String providerName);
+
+    /**
+     * Writes a file that is not a provider list, such as a binary index. The file is left untouched
+     * when its content did not change.
+     */
+    void writeBytes(String name, byte[] content) throws IOException;
+
+    /**
+     * Guards the write cycle against concurrent writers, if supported.
+     *
+     * @return {@code false} when locking was requested but the write cycle goes ahead without the lock
+     */
+    boolean lock() throws IOException;
+
+    void unlock() throws IOException;
+
+    /**
+     * Publishes every file written since the last commit.
+     */
+    void commit() throws IOException;
+
+    /**
+     * Drops every file written since the last commit.
+     */
+    void discard();
+
+    /**
+     * Deletes files left over by commits that were interrupted, if any.
+     */
+    void deleteLeftovers();
+}
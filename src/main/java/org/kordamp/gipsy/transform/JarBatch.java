@@ -0,0 +1,85 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2013-2023 Andres Almiray
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.kordamp.gipsy.transform;
+
+import org.kordamp.jipsy.processor.LogLocation;
+import org.kordamp.jipsy.processor.Logger;
+
+import java.io.IOException;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Collects the entries committed by the {@link JarPersistence} instances of a compilation unit, so
+ * that each jar is rewritten once, when the unit is done, instead of once per index and commit.
+ *
+ * @author Andres Almiray
+ */
+final class JarBatch {
+    // jar -> entry path -> content
+    private final Map<Path, Map<String, byte[]>> jars = new LinkedHashMap<Path, Map<String, byte[]>>();
+
+    void add(Path jar, String entry, byte[] content) {
+        Map<String, byte[]> entries = jars.get(jar);
+        if (entries == null) {
+            entries = new LinkedHashMap<String, byte[]>();
+            jars.put(jar, entries);
+        }
+        entries.put(entry, content);
+    }
+
+    boolean isEmpty() {
+        return jars.isEmpty();
+    }
+
+    /**
+     * Writes the collected entries, opening every jar once. Entries are dropped whether or not the
+     * write succeeds.
+     */
+    void flush(Logger logger) throws IOException {
+        try {
+            for (Map.Entry<Path, Map<String, byte[]>> jar : jars.entrySet()) {
+                write(jar.getKey(), jar.getValue());
+                if (GipsyLogger.isNoteEnabled(logger)) {
+                    logger.note(LogLocation.LOG_FILE, "Wrote " + jar.getValue().size() + " entries to " + jar.getKey());
+                }
+            }
+        } finally {
+            jars.clear();
+        }
+    }
+
+    private static void write(Path jar, Map<String, byte[]> entries) throws IOException {
+        synchronized (JarPersistence.zipLock(jar)) {
+            Files.createDirectories(jar.getParent());
+            try (FileSystem zip = FileSystems.newFileSystem(JarPersistence.uri(jar), Collections.singletonMap("create", "true"))) {
+                for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+                    Path path = zip.getPath("/" + entry.getKey());
+                    Files.createDirectories(path.getParent());
+                    Files.write(path, entry.getValue());
+                    GipsyPhase.fileWritten(entry.getValue().length);
+                }
+            }
+        }
+    }
+}
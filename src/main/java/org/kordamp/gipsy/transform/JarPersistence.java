@@ -0,0 +1,232 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2013-2023 Andres Almiray
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.kordamp.gipsy.transform;
+
+import org.kordamp.jipsy.processor.AbstractPersistence;
+import org.kordamp.jipsy.processor.Initializer;
+import org.kordamp.jipsy.processor.Logger;
+import org.kordamp.jipsy.processor.SimpleFileFilter;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.ZipError;
+
+/**
+ * Reads and writes index entries straight into a jar through the NIO zip filesystem. Existing
+ * entries of the index directory are loaded once; changed entries are written together on
+ * {@link #commit()}, leaving every other entry of the archive untouched. Instances sharing a
+ * {@link JarBatch} hand their entries over on commit instead, and the jar is written once when
+ * the batch is flushed.
+ *
+ * @author Andres Almiray
+ */
+public class JarPersistence extends AbstractPersistence implements IndexPersistence {
+    // the zip filesystem allows a single open instance per archive; archives are hashed onto
+    // stripes so that compilations writing different jars do not wait for each other
+    private static final int STRIPES = 16;
+    private static final Object[] ZIP_LOCKS = new Object[STRIPES];
+
+    static {
+        for (int i = 0; i < STRIPES; i++) {
+            ZIP_LOCKS[i] = new Object();
+        }
+    }
+
+    private final Path jar;
+    private final Object zipLock;
+    private final String dir;
+    private final Map<String, byte[]> entries = new LinkedHashMap<String, byte[]>();
+    private final Map<String, byte[]> pending = new LinkedHashMap<String, byte[]>();
+    private final JarBatch batch;
+    private final boolean ownsBatch;
+    private IOException readFailure;
+
+    public JarPersistence(String name, Logger logger, String path, Path jar) {
+        this(name, logger, path, jar, null);
+    }
+
+    JarPersistence(String name, Logger logger, String path, Path jar, JarBatch batch) {
+        super(name, logger, path);
+        this.jar = jar.toAbsolutePath().normalize();
+        this.zipLock = zipLock(this.jar);
+        this.dir = path.startsWith("/") ? path.substring(1) : path;
+        this.ownsBatch = batch == null;
+        this.batch = ownsBatch ? new JarBatch() : batch;
+        try {
+            load();
+        } catch (IOException e) {
+            readFailure = e;
+        } catch (RuntimeException | ZipError e) {
+            readFailure = new IOException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * The failure to read the existing entries of the jar, or {@code null}. A jar that could not be
+     * read is never written, so that its entries are not lost.
+     */
+    IOException getReadFailure() {
+        return readFailure;
+    }
+
+    private void load() throws IOException {
+        if (!Files.isRegularFile(jar)) {
+            return;
+        }
+        synchronized (zipLock) {
+            try (FileSystem zip = FileSystems.newFileSystem(uri(jar), Collections.<String, Object>emptyMap())) {
+                Path indexDir = zip.getPath("/" + dir);
+                if (!Files.isDirectory(indexDir)) {
+                    return;
+                }
+                try (DirectoryStream<Path> stream = Files.newDirectoryStream(indexDir)) {
+                    for (Path entry : stream) {
+                        if (Files.isRegularFile(entry)) {
+                            entries.put(entry.getFileName().toString(), Files.readAllBytes(entry));
+                            GipsyPhase.fileRead();
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    static Object zipLock(Path jar) {
+        return ZIP_LOCKS[(jar.toString().hashCode() & Integer.MAX_VALUE) % STRIPES];
+    }
+
+    static URI uri(Path jar) {
+        return URI.create("jar:" + jar.toUri());
+    }
+
+    @Override
+    public Collection<String> tryFind() {
+        return new ArrayList<String>(entries.keySet());
+    }
+
+    @Override
+    public Initializer getInitializer() {
+        return new Initializer() {
+            @Override
+            public CharSequence initialData(String name) {
+                byte[] content = entries.get(name);
+                return content != null ? StandardCharsets.UTF_8.decode(ByteBuffer.wrap(content)) : null;
+            }
+        };
+    }
+
+    @Override
+    public File determineOutputLocation() {
+        return null;
+    }
+
+    @Override
+    public void delete() {
+        // entries are only ever replaced
+    }
+
+    @Override
+    protected FileFilter getFileFilter() {
+        return SimpleFileFilter.INSTANCE;
+    }
+
+    @Override
+    protected Writer createWriter(final String name) {
+        return new StringWriter() {
+            @Override
+            public void close() {
+                String content = toString();
+                byte[] existing = entries.get(name);
+                if (existing != null && AbstractFilePersistence.isSameContent(new String(existing, StandardCharsets.UTF_8), content)) {
+                    return;
+                }
+                pending.put(name, content.getBytes(StandardCharsets.UTF_8));
+            }
+        };
+    }
+
+    @Override
+    public void writeBytes(String name, byte[] content) {
+        if (!Arrays.equals(entries.get(name), content)) {
+            pending.put(name, content);
+        }
+    }
+
+    @Override
+    public void markStale(String providerName) {
+        // entries are read once, at construction
+    }
+
+    @Override
+    public boolean lock() {
+        // writes are serialized by the archive's stripe
+        return true;
+    }
+
+    @Override
+    public void unlock() {
+        // writes are serialized by the archive's stripe
+    }
+
+    @Override
+    public void commit() throws IOException {
+        if (pending.isEmpty()) {
+            return;
+        }
+        if (readFailure != null) {
+            pending.clear();
+            throw new IOException("Could not read " + jar + ": " + readFailure.getMessage(), readFailure);
+        }
+
+        for (Map.Entry<String, byte[]> entry : pending.entrySet()) {
+            batch.add(jar, dir + entry.getKey(), entry.getValue());
+        }
+        entries.putAll(pending);
+        pending.clear();
+        if (ownsBatch) {
+            batch.flush(logger);
+        }
+    }
+
+    @Override
+    public void discard() {
+        pending.clear();
+    }
+
+    @Override
+    public void deleteLeftovers() {
+        // entries are written in place
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2013-2023 Andres Almiray
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.kordamp.gipsy.transform;
+
+/**
+ * {@link GipsyPhase} backed by a {@link GipsyPhaseEvent}. Only loaded when {@code jdk.jfr} is present.
+ *
+ * @author Andres Almiray
+ */
+final class JfrPhase extends GipsyPhase {
+    private static final ThreadLocal<JfrPhase> CURRENT = new ThreadLocal<JfrPhase>();
+
+    private final GipsyPhaseEvent event;
+    private final JfrPhase parent;
+
+    private JfrPhase(GipsyPhaseEvent event, JfrPhase parent) {
+        this.event = event;
+        this.parent = parent;
+    }
+
+    static GipsyPhase begin(String name, String module) {
+        GipsyPhaseEvent event = new GipsyPhaseEvent();
+        if (!event.isEnabled()) {
+            return NOOP;
+        }
+        event.phase = name;
+        event.module = module;
+        JfrPhase phase = new JfrPhase(event, CURRENT.get());
+        CURRENT.set(phase);
+        event.begin();
+        return phase;
+    }
+
+    static void fileRead() {
+        JfrPhase phase = CURRENT.get();
+        if (phase != null) {
+            phase.event.filesRead++;
+        }
+    }
+
+    static void fileWritten(long bytes) {
+        JfrPhase phase = CURRENT.get();
+        if (phase != null) {
+            phase.event.filesWritten++;
+            phase.event.bytesWritten += bytes;
+        }
+    }
+
+    @Override
+    public void annotations(int count) {
+        event.annotations += count;
+    }
+
+    @Override
+    public void close() {
+        event.commit();
+        if (parent != null) {
+            parent.event.filesRead += event.filesRead;
+            parent.event.filesWritten += event.filesWritten;
+            parent.event.bytesWritten += event.bytesWritten;
+            CURRENT.set(parent);
+        } else {
+            CURRENT.remove();
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2013-2023 Andres Almiray
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.kordamp.gipsy.transform;
+
+import groovy.lang.GroovyClassLoader;
+import org.kordamp.jipsy.processor.AbstractPersistence;
+import org.kordamp.jipsy.processor.Initializer;
+import org.kordamp.jipsy.processor.Logger;
+import org.kordamp.jipsy.processor.SimpleFileFilter;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps index files in memory, served through the compiling {@link GroovyClassLoader}. Used for
+ * runtime compilations that have no target directory, so that no file is ever touched.
+ *
+ * @author Andres Almiray
+ */
+public class MemoryPersistence extends AbstractPersistence implements IndexPersistence {
+    private final MemoryResources resources;
+    private final String dir;
+    private final Map<String, byte[]> pending = new LinkedHashMap<String, byte[]>();
+
+    public MemoryPersistence(String name, Logger logger, String path, GroovyClassLoader classLoader) {
+        super(name, logger, path);
+        this.resources = MemoryResources.of(classLoader);
+        this.dir = path.startsWith("/") ? path.substring(1) : path;
+    }
+
+    @Override
+    public Collection<String> tryFind() {
+        return resources.list(dir);
+    }
+
+    @Override
+    public Initializer getInitializer() {
+        return new Initializer() {
+            @Override
+            public CharSequence initialData(String name) {
+                byte[] content = resources.get(dir + name);
+                return content != null ? StandardCharsets.UTF_8.decode(ByteBuffer.wrap(content)) : null;
+            }
+        };
+    }
+
+    @Override
+    public File determineOutputLocation() {
+        return null;
+    }
+
+    @Override
+    public void delete() {
+        resources.remove(dir + name);
+    }
+
+    @Override
+    protected FileFilter getFileFilter() {
+        return SimpleFileFilter.INSTANCE;
+    }
+
+    @Override
+    protected Writer createWriter(final String name) {
+        return new StringWriter() {
+            @Override
+            public void close() {
+                pending.put(dir + name, toString().getBytes(StandardCharsets.UTF_8));
+            }
+        };
+    }
+
+    @Override
+    public void writeBytes(String name, byte[] content) {
+        pending.put(dir + name, content);
+    }
+
+    @Override
+    public void markStale(String providerName) {
+        // no other writers
+    }
+
+    @Override
+    public boolean lock() {
+        // no other writers
+        return true;
+    }
+
+    @Override
+    public void unlock() {
+        // no other writers
+    }
+
+    @Override
+    public void commit() {
+        for (Map.Entry<String, byte[]> entry : pending.entrySet()) {
+            resources.put(entry.getKey(), entry.getValue());
+        }
+        pending.clear();
+    }
+
+    @Override
+    public void discard() {
+        pending.clear();
+    }
+
+    @Override
+    public void deleteLeftovers() {
+        // no files are written
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2013-2023 Andres Almiray
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.kordamp.gipsy.transform;
+
+import groovy.lang.GroovyClassLoader;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Index files kept in memory for a {@link GroovyClassLoader}. They are served through a URL added to
+ * the class loader, so {@code getResource(s)} and {@code ServiceLoader} find them without any file.
+ *
+ * @author Andres Almiray
+ */
+final class MemoryResources extends URLStreamHandler {
+    private static final String PROTOCOL = "gipsy";
+    private static final Map<ClassLoader, MemoryResources> RESOURCES = new WeakHashMap<ClassLoader, MemoryResources>();
+
+    private final ConcurrentMap<String, byte[]> entries = new ConcurrentHashMap<String, byte[]>();
+    private final String root;
+
+    private MemoryResources(String root) {
+        this.root = root;
+    }
+
+    static MemoryResources of(GroovyClassLoader classLoader) {
+        synchronized (RESOURCES) {
+            MemoryResources resources = RESOURCES.get(classLoader);
+            if (resources == null) {
+                resources = new MemoryResources("/" + Integer.toHexString(System.identityHashCode(classLoader)) + "/");
+                try {
+                    classLoader.addURL(new URL(PROTOCOL, "", -1, resources.root, resources));
+                } catch (MalformedURLException e) {
+                    throw new IllegalStateException(e);
+                }
+                RESOURCES.put(classLoader, resources);
+            }
+            return resources;
+        }
+    }
+
+    byte[] get(String name) {
+        return entries.get(name);
+    }
+
+    void put(String name, byte[] content) {
+        entries.put(name, content);
+    }
+
+    void remove(String name) {
+        entries.remove(name);
+    }
+
+    /**
+     * Names of the entries directly inside the given directory.
+     */
+    Collection<String> list(String dir) {
+        List<String> names = new ArrayList<String>();
+        for (String name : entries.keySet()) {
+            if (name.startsWith(dir) && name.indexOf('/', dir.length()) == -1) {
+                names.add(name.substring(dir.length()));
+            }
+        }
+        return names;
+    }
+
+    @Override
+    protected URLConnection openConnection(URL url) throws IOException {
+        String path = url.getPath();
+        final byte[] content = path.startsWith(root) ? entries.get(path.substring(root.length())) : null;
+        if (content == null) {
+            throw new FileNotFoundException(url.toString());
+        }
+        return new URLConnection(url) {
+            @Override
+            public void connect() {
+                connected = true;
+            }
+
+            @Override
+            public InputStream getInputStream() {
+                return new ByteArrayInputStream(content);
+            }
+
+            @Override
+            public int getContentLength() {
+                return content.length;
+            }
+        };
+    }
+}
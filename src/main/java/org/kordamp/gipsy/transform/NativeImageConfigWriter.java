@@ -0,0 +1,124 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2013-2023 Andres Almiray
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.kordamp.gipsy.transform;
+
+import org.kordamp.gipsy.runtime.GipsyIndex;
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Renders the GraalVM native-image {@code reflect-config.json} and {@code resource-config.json}
+ * for registrations. Service providers can be instantiated through their no-args constructor,
+ * Sisu components through any declared constructor, and registered types can be looked up by name.
+ * Every index file is included as a resource. Output is sorted, so equal registrations always
+ * render the same content.
+ *
+ * @author Andres Almiray
+ */
+final class NativeImageConfigWriter {
+    private static final int NAME_ACCESS = 0;
+    private static final int CONSTRUCTOR_ACCESS = 1;
+    private static final int ALL_CONSTRUCTORS_ACCESS = 2;
+
+    private NativeImageConfigWriter() {
+        // prevent instantiation
+    }
+
+    /**
+     * @param sections registered names per service, type or qualifier, keyed by index name
+     */
+    static String reflectConfig(Map<String, Map<String, List<String>>> sections) {
+        // a class registered in several sections gets the widest access
+        Map<String, Integer> classes = new TreeMap<String, Integer>();
+        for (Map.Entry<String, Map<String, List<String>>> section : sections.entrySet()) {
+            int access = access(section.getKey());
+            for (List<String> names : section.getValue().values()) {
+                for (String name : names) {
+                    Integer previous = classes.get(name);
+                    if (previous == null || previous < access) {
+                        classes.put(name, access);
+                    }
+                }
+            }
+        }
+
+        StringBuilder json = new StringBuilder("[\n");
+        String separator = "";
+        for (Map.Entry<String, Integer> entry : classes.entrySet()) {
+            json.append(separator).append("  {\n    \"name\": ").append(quote(entry.getKey()));
+            if (entry.getValue() == CONSTRUCTOR_ACCESS) {
+                json.append(",\n    \"methods\": [ { \"name\": \"<init>\", \"parameterTypes\": [] } ]");
+            } else if (entry.getValue() == ALL_CONSTRUCTORS_ACCESS) {
+                json.append(",\n    \"allDeclaredConstructors\": true");
+            }
+            json.append("\n  }");
+            separator = ",\n";
+        }
+        return json.append("\n]\n").toString();
+    }
+
+    /**
+     * @param sections   registered names per service, type or qualifier, keyed by index name
+     * @param extraPaths other resources to include, such as the binary index
+     */
+    static String resourceConfig(Map<String, Map<String, List<String>>> sections, List<String> extraPaths) {
+        TreeSet<String> paths = new TreeSet<String>(extraPaths);
+        for (Map.Entry<String, Map<String, List<String>>> section : sections.entrySet()) {
+            for (Map.Entry<String, List<String>> entry : section.getValue().entrySet()) {
+                if (!entry.getValue().isEmpty()) {
+                    paths.add("META-INF/" + section.getKey() + "/" + entry.getKey());
+                }
+            }
+        }
+
+        StringBuilder json = new StringBuilder("{\n  \"resources\": {\n    \"includes\": [");
+        String separator = "\n";
+        for (String path : paths) {
+            json.append(separator).append("      { \"pattern\": ").append(quote("\\Q" + path + "\\E")).append(" }");
+            separator = ",\n";
+        }
+        return json.append("\n    ]\n  }\n}\n").toString();
+    }
+
+    private static int access(String section) {
+        if (GipsyIndex.SERVICES.equals(section)) {
+            return CONSTRUCTOR_ACCESS;
+        } else if (GipsyIndex.SISU.equals(section)) {
+            return ALL_CONSTRUCTORS_ACCESS;
+        }
+        return NAME_ACCESS;
+    }
+
+    private static String quote(String value) {
+        StringBuilder sb = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < 0x20) {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+}
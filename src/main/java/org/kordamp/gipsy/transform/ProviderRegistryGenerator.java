@@ -0,0 +1,265 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2013-2023 Andres Almiray
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.kordamp.gipsy.transform;
+
+import groovyjarjarasm.asm.ClassWriter;
+import groovyjarjarasm.asm.Label;
+import groovyjarjarasm.asm.MethodVisitor;
+import groovyjarjarasm.asm.Opcodes;
+import groovyjarjarasm.asm.Type;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Generates the bytecode of a provider registry class, so that providers can be looked up without
+ * scanning the classpath for index files. For a registry named {@code com.acme.Providers} the
+ * generated class is equivalent to
+ * <pre>
+ * public final class Providers {
+ *     public static &lt;S&gt; List&lt;Supplier&lt;S&gt;&gt; providers(Class&lt;S&gt; service) {
+ *         if (service == com.acme.Greeter.class) return Providers$Services0.FACTORIES;
+ *         return Collections.emptyList();
+ *     }
+ *
+ *     public static List&lt;Class&lt;?&gt;&gt; types(Class&lt;?&gt; type) {
+ *         if (type == com.acme.Plugin.class) return Providers$Types0.TYPES;
+ *         return Collections.emptyList();
+ *     }
+ * }
+ *
+ * final class Providers$Services0 implements Supplier {
+ *     static final List FACTORIES = Collections.unmodifiableList(Arrays.asList(new Providers$Services0(0)));
+ *
+ *     private final int index;
+ *
+ *     public Object get() {
+ *         switch (index) {
+ *             case 0: return new DefaultGreeter();
+ *             default: throw new IllegalStateException();
+ *         }
+ *     }
+ * }
+ * </pre>
+ * Each service gets one factory per provider. Looking up a service creates no provider; every call
+ * to {@code get()} creates a new instance with a plain constructor call instead of reflection, so
+ * callers decide which providers to create and whether to share them.
+ *
+ * @author Andres Almiray
+ */
+public final class ProviderRegistryGenerator {
+    private static final String OBJECT = "java/lang/Object";
+    private static final String SUPPLIER = "java/util/function/Supplier";
+    private static final String LIST_DESCRIPTOR = "Ljava/util/List;";
+    private static final String FACTORIES = "FACTORIES";
+    private static final String TYPES = "TYPES";
+
+    private ProviderRegistryGenerator() {
+        // prevent instantiation
+    }
+
+    /**
+     * Returns the bytecode of the registry class and its holder classes, keyed by class name.
+     *
+     * @param className the fully qualified name of the registry class
+     * @param services  provider class names per service name
+     * @param types     provider class names per type name
+     */
+    public static Map<String, byte[]> generate(String className, Map<String, List<String>> services, Map<String, List<String>> types) {
+        String registry = internalName(className);
+        Map<String, byte[]> classes = new LinkedHashMap<String, byte[]>();
+
+        String[] serviceHolders = holders(classes, registry + "$Services", services, true);
+        String[] typeHolders = holders(classes, registry + "$Types", types, false);
+
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        cw.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_FINAL | Opcodes.ACC_SUPER, registry, null, OBJECT, null);
+
+        MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PRIVATE, "<init>", "()V", null, null);
+        mv.visitCode();
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitMethodInsn(Opcodes.INVOKESPECIAL, OBJECT, "<init>", "()V", false);
+        mv.visitInsn(Opcodes.RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        lookup(cw, "providers", "<S:Ljava/lang/Object;>(Ljava/lang/Class<TS;>;)Ljava/util/List<Ljava/util/function/Supplier<TS;>;>;",
+            services, serviceHolders, FACTORIES);
+        lookup(cw, "types", "(Ljava/lang/Class<*>;)Ljava/util/List<Ljava/lang/Class<*>;>;",
+            types, typeHolders, TYPES);
+
+        cw.visitEnd();
+        classes.put(className, cw.toByteArray());
+        return classes;
+    }
+
+    private static String[] holders(Map<String, byte[]> classes, String prefix, Map<String, List<String>> registrations, boolean factories) {
+        String[] holders = new String[registrations.size()];
+        int index = 0;
+        for (List<String> providers : registrations.values()) {
+            String holder = prefix + index;
+            holders[index++] = holder;
+            if (!providers.isEmpty()) {
+                classes.put(holder.replace('/', '.'), factories ? factoryHolder(holder, providers) : typeHolder(holder, providers));
+            }
+        }
+        return holders;
+    }
+
+    /**
+     * A {@code Supplier} whose instances each create one of the providers, and a list holding one
+     * instance per provider.
+     */
+    private static byte[] factoryHolder(String holder, List<String> providers) {
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        cw.visit(Opcodes.V1_8, Opcodes.ACC_FINAL | Opcodes.ACC_SUPER | Opcodes.ACC_SYNTHETIC, holder, null, OBJECT, new String[]{SUPPLIER});
+        cw.visitField(Opcodes.ACC_STATIC | Opcodes.ACC_FINAL, FACTORIES, LIST_DESCRIPTOR, null, null).visitEnd();
+        cw.visitField(Opcodes.ACC_PRIVATE | Opcodes.ACC_FINAL, "index", "I", null, null).visitEnd();
+
+        MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PRIVATE, "<init>", "(I)V", null, null);
+        mv.visitCode();
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitMethodInsn(Opcodes.INVOKESPECIAL, OBJECT, "<init>", "()V", false);
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitVarInsn(Opcodes.ILOAD, 1);
+        mv.visitFieldInsn(Opcodes.PUTFIELD, holder, "index", "I");
+        mv.visitInsn(Opcodes.RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "get", "()Ljava/lang/Object;", null, null);
+        mv.visitCode();
+        Label[] cases = new Label[providers.size()];
+        for (int i = 0; i < cases.length; i++) {
+            cases[i] = new Label();
+        }
+        Label unknown = new Label();
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitFieldInsn(Opcodes.GETFIELD, holder, "index", "I");
+        mv.visitTableSwitchInsn(0, cases.length - 1, unknown, cases);
+        for (int i = 0; i < cases.length; i++) {
+            String provider = internalName(providers.get(i));
+            mv.visitLabel(cases[i]);
+            mv.visitFrame(Opcodes.F_SAME, 0, null, 0, null);
+            mv.visitTypeInsn(Opcodes.NEW, provider);
+            mv.visitInsn(Opcodes.DUP);
+            mv.visitMethodInsn(Opcodes.INVOKESPECIAL, provider, "<init>", "()V", false);
+            mv.visitInsn(Opcodes.ARETURN);
+        }
+        mv.visitLabel(unknown);
+        mv.visitFrame(Opcodes.F_SAME, 0, null, 0, null);
+        mv.visitTypeInsn(Opcodes.NEW, "java/lang/IllegalStateException");
+        mv.visitInsn(Opcodes.DUP);
+        mv.visitMethodInsn(Opcodes.INVOKESPECIAL, "java/lang/IllegalStateException", "<init>", "()V", false);
+        mv.visitInsn(Opcodes.ATHROW);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        mv = cw.visitMethod(Opcodes.ACC_STATIC, "<clinit>", "()V", null, null);
+        mv.visitCode();
+        push(mv, providers.size());
+        mv.visitTypeInsn(Opcodes.ANEWARRAY, OBJECT);
+        for (int i = 0; i < providers.size(); i++) {
+            mv.visitInsn(Opcodes.DUP);
+            push(mv, i);
+            mv.visitTypeInsn(Opcodes.NEW, holder);
+            mv.visitInsn(Opcodes.DUP);
+            push(mv, i);
+            mv.visitMethodInsn(Opcodes.INVOKESPECIAL, holder, "<init>", "(I)V", false);
+            mv.visitInsn(Opcodes.AASTORE);
+        }
+        putList(mv, holder, FACTORIES);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    private static byte[] typeHolder(String holder, List<String> types) {
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        cw.visit(Opcodes.V1_8, Opcodes.ACC_FINAL | Opcodes.ACC_SUPER | Opcodes.ACC_SYNTHETIC, holder, null, OBJECT, null);
+        cw.visitField(Opcodes.ACC_STATIC | Opcodes.ACC_FINAL, TYPES, LIST_DESCRIPTOR, null, null).visitEnd();
+
+        MethodVisitor mv = cw.visitMethod(Opcodes.ACC_STATIC, "<clinit>", "()V", null, null);
+        mv.visitCode();
+        push(mv, types.size());
+        mv.visitTypeInsn(Opcodes.ANEWARRAY, "java/lang/Class");
+        for (int i = 0; i < types.size(); i++) {
+            mv.visitInsn(Opcodes.DUP);
+            push(mv, i);
+            mv.visitLdcInsn(Type.getObjectType(internalName(types.get(i))));
+            mv.visitInsn(Opcodes.AASTORE);
+        }
+        putList(mv, holder, TYPES);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    // wraps the array on the stack in an unmodifiable list stored in the given field
+    private static void putList(MethodVisitor mv, String holder, String field) {
+        mv.visitMethodInsn(Opcodes.INVOKESTATIC, "java/util/Arrays", "asList", "([Ljava/lang/Object;)Ljava/util/List;", false);
+        mv.visitMethodInsn(Opcodes.INVOKESTATIC, "java/util/Collections", "unmodifiableList", "(Ljava/util/List;)Ljava/util/List;", false);
+        mv.visitFieldInsn(Opcodes.PUTSTATIC, holder, field, LIST_DESCRIPTOR);
+        mv.visitInsn(Opcodes.RETURN);
+    }
+
+    private static void lookup(ClassWriter cw, String name, String signature, Map<String, List<String>> registrations, String[] holders, String field) {
+        MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, name, "(Ljava/lang/Class;)Ljava/util/List;", signature, null);
+        mv.visitCode();
+        int index = 0;
+        for (Map.Entry<String, List<String>> registration : registrations.entrySet()) {
+            String holder = holders[index++];
+            if (registration.getValue().isEmpty()) {
+                continue;
+            }
+            Label next = new Label();
+            mv.visitVarInsn(Opcodes.ALOAD, 0);
+            mv.visitLdcInsn(Type.getObjectType(internalName(registration.getKey())));
+            mv.visitJumpInsn(Opcodes.IF_ACMPNE, next);
+            mv.visitFieldInsn(Opcodes.GETSTATIC, holder, field, LIST_DESCRIPTOR);
+            mv.visitInsn(Opcodes.ARETURN);
+            mv.visitLabel(next);
+            mv.visitFrame(Opcodes.F_SAME, 0, null, 0, null);
+        }
+        mv.visitMethodInsn(Opcodes.INVOKESTATIC, "java/util/Collections", "emptyList", "()Ljava/util/List;", false);
+        mv.visitInsn(Opcodes.ARETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+    }
+
+    private static void push(MethodVisitor mv, int value) {
+        if (value <= 5) {
+            mv.visitInsn(Opcodes.ICONST_0 + value);
+        } else if (value <= Byte.MAX_VALUE) {
+            mv.visitIntInsn(Opcodes.BIPUSH, value);
+        } else if (value <= Short.MAX_VALUE) {
+            mv.visitIntInsn(Opcodes.SIPUSH, value);
+        } else {
+            mv.visitLdcInsn(value);
+        }
+    }
+
+    private static String internalName(String className) {
+        return className.replace('.', '/');
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2013-2023 Andres Almiray
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.kordamp.gipsy.transform;
+
+import org.kordamp.jipsy.processor.Initializer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Registrations of one index directory: the providers listed by each entry (a service, type or
+ * Sisu qualifier), kept as {@link SymbolTable} symbols. Every name is held once by the symbol table
+ * shared by the compilation unit, and each entry holds an {@code int} per provider.
+ * <p>
+ * Entries are read from their index file the first time they are loaded. A reverse index from
+ * provider to entries lets {@link #removeProvider(String)} touch only the entries listing the
+ * provider.
+ *
+ * @author Andres Almiray
+ */
+public final class ProviderStore {
+    private static final int[] NO_SYMBOLS = new int[0];
+
+    private final SymbolTable symbols;
+    private final Initializer initializer;
+
+    // entry symbol -> provider symbols in registration order, null when the entry is not loaded
+    private int[][] providers = new int[64][];
+    private int[] providerCounts = new int[64];
+    // loaded entry symbols in load order
+    private int[] entries = new int[16];
+    private int entryCount;
+    // provider symbol -> entry symbols listing it
+    private int[][] entriesByProvider = new int[64][];
+
+    public ProviderStore(SymbolTable symbols, Initializer initializer) {
+        this.symbols = symbols;
+        this.initializer = initializer;
+    }
+
+    /**
+     * Reads the index file of an entry unless it was loaded already.
+     */
+    public void load(String entryName) {
+        entry(entryName);
+    }
+
+    public void addProvider(String entryName, String providerName) {
+        addProvider(entry(entryName), symbols.intern(providerName));
+    }
+
+    /**
+     * Removes a provider from every loaded entry listing it.
+     */
+    public void removeProvider(String providerName) {
+        int provider = symbols.find(providerName);
+        if (provider < 0 || provider >= entriesByProvider.length || entriesByProvider[provider] == null) {
+            return;
+        }
+
+        for (int entry : entriesByProvider[provider]) {
+            int[] list = providers[entry];
+            int count = providerCounts[entry];
+            for (int i = 0; i < count; i++) {
+                if (list[i] == provider) {
+                    System.arraycopy(list, i + 1, list, i, count - i - 1);
+                    providerCounts[entry] = count - 1;
+                    break;
+                }
+            }
+        }
+        entriesByProvider[provider] = null;
+    }
+
+    public boolean isEmpty() {
+        return entryCount == 0;
+    }
+
+    /**
+     * Names of the loaded entries, including those left without providers.
+     */
+    public List<String> entryNames() {
+        List<String> names = new ArrayList<String>(entryCount);
+        for (int i = 0; i < entryCount; i++) {
+            names.add(symbols.name(entries[i]));
+        }
+        return names;
+    }
+
+    /**
+     * Providers of an entry, sorted by name.
+     */
+    public List<String> providers(String entryName) {
+        int entry = symbols.find(entryName);
+        if (entry < 0 || entry >= providers.length || providers[entry] == null) {
+            return Collections.emptyList();
+        }
+
+        List<String> names = new ArrayList<String>(providerCounts[entry]);
+        for (int i = 0; i < providerCounts[entry]; i++) {
+            names.add(symbols.name(providers[entry][i]));
+        }
+        Collections.sort(names);
+        return names;
+    }
+
+    /**
+     * Contents of the index file of an entry, one provider per line, sorted by name.
+     */
+    public String toProviderNamesList(String entryName) {
+        StringBuilder sb = new StringBuilder();
+        for (String provider : providers(entryName)) {
+            sb.append(provider).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private int entry(String entryName) {
+        int entry = symbols.intern(entryName);
+        if (entry >= providers.length) {
+            int length = Math.max(entry + 1, providers.length * 2);
+            providers = Arrays.copyOf(providers, length);
+            providerCounts = Arrays.copyOf(providerCounts, length);
+        }
+        if (providers[entry] != null) {
+            return entry;
+        }
+
+        providers[entry] = NO_SYMBOLS;
+        if (entryCount == entries.length) {
+            entries = Arrays.copyOf(entries, entryCount * 2);
+        }
+        entries[entryCount++] = entry;
+
+        CharSequence content = initializer.initialData(entryName);
+        if (content != null) {
+            // scanned in place, providers already known are not copied
+            int length = content.length();
+            int lineStart = 0;
+            while (lineStart < length) {
+                int lineEnd = lineStart;
+                while (lineEnd < length && content.charAt(lineEnd) != '\n' && content.charAt(lineEnd) != '\r') {
+                    lineEnd++;
+                }
+                addLine(entry, content, lineStart, lineEnd);
+                lineStart = lineEnd + 1;
+            }
+        }
+        return entry;
+    }
+
+    private void addLine(int entry, CharSequence content, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (content.charAt(i) == '#') {
+                end = i;
+                break;
+            }
+        }
+        while (start < end && content.charAt(start) <= ' ') {
+            start++;
+        }
+        while (end > start && content.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        if (start < end) {
+            addProvider(entry, symbols.intern(content, start, end));
+        }
+    }
+
+    private void addProvider(int entry, int provider) {
+        if (provider >= entriesByProvider.length) {
+            entriesByProvider = Arrays.copyOf(entriesByProvider, Math.max(provider + 1, entriesByProvider.length * 2));
+        }
+        int[] listing = entriesByProvider[provider] != null ? entriesByProvider[provider] : NO_SYMBOLS;
+        for (int existing : listing) {
+            if (existing == entry) {
+                return;
+            }
+        }
+        listing = Arrays.copyOf(listing, listing.length + 1);
+        listing[listing.length - 1] = entry;
+        entriesByProvider[provider] = listing;
+
+        int count = providerCounts[entry];
+        if (count == providers[entry].length) {
+            providers[entry] = Arrays.copyOf(providers[entry], Math.max(4, count * 2));
+        }
+        providers[entry][count] = provider;
+        providerCounts[entry] = count + 1;
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2013-2023 Andres Almiray
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.kordamp.gipsy.transform;
+
+import java.util.Arrays;
+
+/**
+ * Numbers the class names seen during a compilation unit, so that indexes can hold {@code int}
+ * symbols instead of strings. A name is kept as its package, stored once for every class in that
+ * package, and its simple name; the full name is only rebuilt when asked for.
+ * <p>
+ * Both tables use open addressing over {@code int} arrays. Looking up a name that is already known
+ * allocates nothing.
+ *
+ * @author Andres Almiray
+ */
+public final class SymbolTable {
+    private String[] packages = new String[16];
+    private int[] packageSlots = new int[32];
+    private int packageCount;
+
+    private int[] symbolPackages = new int[64];
+    private String[] simpleNames = new String[64];
+    private int[] symbolHashes = new int[64];
+    private int[] symbolSlots = new int[128];
+    private int size;
+
+    /**
+     * Returns the symbol of a name, adding it when missing.
+     */
+    public int intern(String name) {
+        return intern(name, 0, name.length());
+    }
+
+    /**
+     * Returns the symbol of the name made of the characters {@code start} to {@code end} of
+     * {@code chars}, adding it when missing. Nothing is copied when the name is known.
+     */
+    public int intern(CharSequence chars, int start, int end) {
+        int hash = hash(chars, start, end);
+        int symbol = find(hash, chars, start, end);
+        return symbol >= 0 ? symbol : add(hash, chars, start, end);
+    }
+
+    /**
+     * Returns the symbol of a name, or {@code -1} when it was never interned.
+     */
+    public int find(String name) {
+        return find(name.hashCode(), name, 0, name.length());
+    }
+
+    public String name(int symbol) {
+        String packageName = packages[symbolPackages[symbol]];
+        return packageName.isEmpty() ? simpleNames[symbol] : packageName + "." + simpleNames[symbol];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private int find(int hash, CharSequence chars, int start, int end) {
+        int mask = symbolSlots.length - 1;
+        for (int i = spread(hash) & mask; symbolSlots[i] != 0; i = (i + 1) & mask) {
+            int symbol = symbolSlots[i] - 1;
+            if (symbolHashes[symbol] == hash && matches(symbol, chars, start, end)) {
+                return symbol;
+            }
+        }
+        return -1;
+    }
+
+    private boolean matches(int symbol, CharSequence chars, int start, int end) {
+        String packageName = packages[symbolPackages[symbol]];
+        String simpleName = simpleNames[symbol];
+        int packageLength = packageName.length();
+        if (packageLength == 0) {
+            return end - start == simpleName.length() && regionMatches(simpleName, chars, start);
+        }
+        return end - start == packageLength + 1 + simpleName.length() &&
+            chars.charAt(start + packageLength) == '.' &&
+            regionMatches(packageName, chars, start) &&
+            regionMatches(simpleName, chars, start + packageLength + 1);
+    }
+
+    private int add(int hash, CharSequence chars, int start, int end) {
+        int separator = lastIndexOf(chars, '.', start, end);
+        int packageId = packageId(chars, start, separator >= 0 ? separator : start);
+        if (size == simpleNames.length) {
+            symbolPackages = Arrays.copyOf(symbolPackages, size * 2);
+            simpleNames = Arrays.copyOf(simpleNames, size * 2);
+            symbolHashes = Arrays.copyOf(symbolHashes, size * 2);
+        }
+        symbolPackages[size] = packageId;
+        simpleNames[size] = chars.subSequence(separator >= 0 ? separator + 1 : start, end).toString();
+        symbolHashes[size] = hash;
+        if ((size + 1) * 2 > symbolSlots.length) {
+            symbolSlots = new int[symbolSlots.length * 2];
+            for (int symbol = 0; symbol < size; symbol++) {
+                insert(symbolSlots, symbolHashes[symbol], symbol);
+            }
+        }
+        insert(symbolSlots, hash, size);
+        return size++;
+    }
+
+    /**
+     * Returns the id of the package made of the characters {@code start} to {@code end} of
+     * {@code chars}.
+     */
+    private int packageId(CharSequence chars, int start, int end) {
+        int hash = hash(chars, start, end);
+        int mask = packageSlots.length - 1;
+        for (int i = spread(hash) & mask; packageSlots[i] != 0; i = (i + 1) & mask) {
+            String packageName = packages[packageSlots[i] - 1];
+            if (packageName.length() == end - start && regionMatches(packageName, chars, start)) {
+                return packageSlots[i] - 1;
+            }
+        }
+
+        if (packageCount == packages.length) {
+            packages = Arrays.copyOf(packages, packageCount * 2);
+        }
+        packages[packageCount] = chars.subSequence(start, end).toString();
+        if ((packageCount + 1) * 2 > packageSlots.length) {
+            packageSlots = new int[packageSlots.length * 2];
+            for (int id = 0; id < packageCount; id++) {
+                insert(packageSlots, packages[id].hashCode(), id);
+            }
+        }
+        insert(packageSlots, hash, packageCount);
+        return packageCount++;
+    }
+
+    // same as String.hashCode() of the range
+    private static int hash(CharSequence chars, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + chars.charAt(i);
+        }
+        return hash;
+    }
+
+    private static boolean regionMatches(String s, CharSequence chars, int offset) {
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) != chars.charAt(offset + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int lastIndexOf(CharSequence chars, char c, int start, int end) {
+        for (int i = end - 1; i >= start; i--) {
+            if (chars.charAt(i) == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static void insert(int[] slots, int hash, int id) {
+        int mask = slots.length - 1;
+        int i = spread(hash) & mask;
+        while (slots[i] != 0) {
+            i = (i + 1) & mask;
+        }
+        slots[i] = id + 1;
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2013-2023 Andres Almiray
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.kordamp.gipsy.transform;
+
+import org.codehaus.groovy.ast.ClassNode;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Memoizes the type checks made while validating providers, for the lifetime of a compilation
+ * unit. Results are keyed by class name, so that every provider of a service shares the walk of
+ * their common supertypes.
+ *
+ * @author Andres Almiray
+ */
+final class TypeHierarchy {
+    private final Map<String, Set<String>> interfaces = new HashMap<String, Set<String>>();
+    private final Map<String, Boolean> noArgsConstructors = new HashMap<String, Boolean>();
+
+    /**
+     * Same as {@link ClassNode#implementsInterface(ClassNode)}.
+     */
+    boolean implementsInterface(ClassNode classNode, ClassNode type) {
+        return interfaces(classNode).contains(type.getName());
+    }
+
+    /**
+     * Same as {@link GipsyASTTransformation#hasNoArgsConstructor(ClassNode)}.
+     */
+    boolean hasNoArgsConstructor(ClassNode classNode) {
+        String name = classNode.getName();
+        Boolean result = noArgsConstructors.get(name);
+        if (result == null) {
+            result = GipsyASTTransformation.hasNoArgsConstructor(classNode);
+            noArgsConstructors.put(name, result);
+        }
+        return result;
+    }
+
+    /**
+     * Names of the interfaces implemented by the class, its superclasses and their superinterfaces.
+     */
+    private Set<String> interfaces(ClassNode classNode) {
+        ClassNode node = classNode.redirect();
+        String name = node.getName();
+        Set<String> closure = interfaces.get(name);
+        if (closure != null) {
+            return closure;
+        }
+
+        closure = new HashSet<String>();
+        for (ClassNode declared : node.getInterfaces()) {
+            closure.add(declared.getName());
+            closure.addAll(interfaces(declared));
+        }
+        ClassNode superClass = node.getSuperClass();
+        if (superClass != null) {
+            closure.addAll(interfaces(superClass));
+        }
+        closure = closure.isEmpty() ? Collections.<String>emptySet() : closure;
+        interfaces.put(name, closure);
+        return closure;
+    }
+}
@@ -21,56 +21,88 @@ import org.codehaus.groovy.ast.AnnotationNode;
 import org.codehaus.groovy.ast.ClassNode;
 import org.codehaus.groovy.ast.ModuleNode;
 import org.codehaus.groovy.ast.expr.ClassExpression;
+import org.codehaus.groovy.ast.expr.ConstantExpression;
 import org.codehaus.groovy.ast.expr.Expression;
 import org.codehaus.groovy.control.CompilePhase;
-import org.codehaus.groovy.transform.ASTTransformation;
 import org.codehaus.groovy.transform.GroovyASTTransformation;
-import org.kordamp.gipsy.transform.GipsyASTTransformation;
+import org.kordamp.gipsy.annotations.ProviderPriority;
+import org.kordamp.gipsy.transform.IndexASTTransformation;
+import org.kordamp.gipsy.transform.IndexPersistence;
+import org.kordamp.gipsy.transform.ProviderStore;
+import org.kordamp.gipsy.transform.ResourcePersistence;
 import org.kordamp.jipsy.annotations.ServiceProviderFor;
 import org.kordamp.jipsy.processor.CheckResult;
 import org.kordamp.jipsy.processor.LogLocation;
-import org.kordamp.jipsy.processor.Persistence;
-import org.kordamp.jipsy.processor.service.Service;
-import org.kordamp.jipsy.processor.service.ServiceCollector;
 
-import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
 import static java.lang.reflect.Modifier.isPublic;
 import static java.lang.reflect.Modifier.isStatic;
 
 /**
+ * Registered through {@link org.kordamp.gipsy.transform.CompositeProviderASTTransformation}.
+ * <p>
+ * Priorities set with {@link ProviderPriority} are kept in {@code META-INF/gipsy/priorities.properties}
+ * and order the providers returned by {@link #getRegistrations()}. They are only read and written when
+ * the binary index or the provider registry, which consume that order, is enabled.
+ *
  * @author Andres Almiray
  */
-@ServiceProviderFor(ASTTransformation.class)
 @GroovyASTTransformation(phase = CompilePhase.CLASS_GENERATION)
-public class ServiceProviderASTTransformation extends GipsyASTTransformation {
+public class ServiceProviderASTTransformation extends IndexASTTransformation {
     public static final String NAME = ServiceProviderASTTransformation.class.getName()
         + " (" + ServiceProviderASTTransformation.class.getPackage().getImplementationVersion() + ")";
 
     private static final ClassNode SERVICE_PROVIDER_FOR_TYPE = makeClassSafe(ServiceProviderFor.class);
+    private static final ClassNode PROVIDER_PRIORITY_TYPE = makeClassSafe(ProviderPriority.class);
+    private static final String PRIORITIES_FILE_NAME = "priorities.properties";
 
-    private Persistence persistence;
-    private ServiceCollector data;
+    private IndexPersistence persistence;
+    private ProviderStore data;
+    private IndexPersistence metadata;
+    private Map<String, Integer> priorities;
+    private boolean prioritiesFile;
 
     @Override
     protected ClassNode getAnnotationClassNode() {
         return SERVICE_PROVIDER_FOR_TYPE;
     }
 
+    @Override
+    protected String getIndexName() {
+        return "services";
+    }
+
     @Override
     protected void initialize(ModuleNode moduleNode) {
         super.initialize(moduleNode);
+        if (options.disabled()) {
+            return;
+        }
 
-        File outputDir = moduleNode.getContext().getConfiguration().getTargetDirectory();
-        persistence = new ServicePersistence(NAME, options.dir(), outputDir, logger);
-        data = new ServiceCollector(persistence.getInitializer(), logger);
+        persistence = createPersistence(moduleNode, NAME, getIndexName(), outputDir -> new ServicePersistence(NAME, options.dir(), outputDir, logger));
+        data = new ProviderStore(getSymbols(), persistence.getInitializer());
+        if (isBinaryIndexEnabled() || getProviderRegistryClassName() != null) {
+            metadata = createPersistence(moduleNode, NAME, "gipsy", outputDir -> new ResourcePersistence(NAME, options.dir() + "/META-INF/gipsy/", outputDir, logger));
+            priorities = readPriorities();
+        } else {
+            metadata = null;
+            priorities = new HashMap<String, Integer>();
+        }
 
-        // Initialize if possible
+        // Initialize if possible, unless the incremental state tells which files need to be read
+        if (state != null && state.isComplete() && !isFullIndexRequired()) {
+            return;
+        }
         for (String serviceName : persistence.tryFind()) {
-            data.getService(serviceName);
+            data.load(serviceName);
         }
         // data.cache();
     }
@@ -78,6 +110,16 @@ public class ServiceProviderASTTransformation extends GipsyASTTransformation {
     @Override
     protected void removeStaleData(ClassNode classNode, ModuleNode moduleNode) {
         data.removeProvider(classNode.getName());
+        priorities.remove(classNode.getName());
+        persistence.markStale(classNode.getName());
+    }
+
+    @Override
+    protected void removeProvider(String serviceName, String providerName) {
+        data.load(serviceName);
+        data.removeProvider(providerName);
+        priorities.remove(providerName);
+        persistence.markStale(providerName);
     }
 
     protected void handleAnnotations(ClassNode classNode, List<AnnotationNode> annotations, ModuleNode moduleNode) {
@@ -87,38 +129,113 @@ public class ServiceProviderASTTransformation extends GipsyASTTransformation {
             return;
         }
 
+        Integer priority = findPriority(classNode, moduleNode);
+        if (priority != null && metadata != null) {
+            priorities.put(classNode.getName(), priority);
+        }
+
         for (ClassNode service : findServices(annotations)) {
             CheckResult implementationResult = isImplementation(classNode, service);
             if (implementationResult.isError()) {
                 addError(implementationResult.getMessage(), classNode, moduleNode.getContext());
             } else {
                 register(service.getName(), classNode);
+                recordContribution(moduleNode, service.getName(), classNode);
             }
         }
     }
 
     @Override
-    protected void writeData() {
-        // if (data.isModified()) {
-        if (data.services().isEmpty()) {
-            logger.note(LogLocation.LOG_FILE, "Writing output");
-            try {
-                persistence.delete();
-            } catch (IOException e) {
-                logger.warning(LogLocation.LOG_FILE, "An error occurred while deleting data file");
-            }
-        } else {
-            logger.note(LogLocation.LOG_FILE, "Writing output");
-            for (Service service : data.services()) {
+    protected Map<String, List<String>> getRegistrations() {
+        Map<String, List<String>> registrations = new LinkedHashMap<String, List<String>>();
+        for (String serviceName : data.entryNames()) {
+            registrations.put(serviceName, byPriority(data.providers(serviceName)));
+        }
+        return registrations;
+    }
+
+    @Override
+    protected void writeData(ModuleNode moduleNode) {
+        writeIndex(persistence, data, moduleNode);
+        writePriorities(moduleNode);
+    }
+
+    private void writePriorities(ModuleNode moduleNode) {
+        if (metadata == null) {
+            return;
+        }
+
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Integer> entry : new TreeMap<String, Integer>(priorities).entrySet()) {
+            sb.append(entry.getKey()).append('=').append(entry.getValue()).append('\n');
+        }
+        if (sb.length() == 0 && !prioritiesFile) {
+            return;
+        }
+
+        try {
+            metadata.writeBytes(PRIORITIES_FILE_NAME, sb.toString().getBytes(StandardCharsets.UTF_8));
+            metadata.commit();
+            prioritiesFile = true;
+        } catch (IOException e) {
+            metadata.discard();
+            addError("An error occurred while writing provider priorities: " + e.getMessage(), moduleNode.getContext());
+        }
+    }
+
+    private Map<String, Integer> readPriorities() {
+        Map<String, Integer> priorities = new HashMap<String, Integer>();
+        CharSequence content = metadata.getInitializer().initialData(PRIORITIES_FILE_NAME);
+        prioritiesFile = content != null;
+        if (content == null) {
+            return priorities;
+        }
+        for (String line : providerNames(content)) {
+            int separator = line.lastIndexOf('=');
+            if (separator > 0) {
                 try {
-                    persistence.write(service.getName(), service.toProviderNamesList());
-                } catch (IOException e) {
-                    // TODO print out error
+                    priorities.put(line.substring(0, separator).trim(), Integer.valueOf(line.substring(separator + 1).trim()));
+                } catch (NumberFormatException e) {
+                    logger.warning(LogLocation.LOG_FILE, "Ignoring malformed provider priority '" + line + "'");
                 }
             }
-            persistence.writeLog();
         }
-        // }
+        return priorities;
+    }
+
+    /**
+     * Sorts providers by descending priority, keeping the name order of those with equal priority.
+     */
+    private List<String> byPriority(List<String> providers) {
+        if (priorities.isEmpty()) {
+            return providers;
+        }
+        List<String> sorted = new ArrayList<String>(providers);
+        sorted.sort((a, b) -> Integer.compare(priority(b), priority(a)));
+        return sorted;
+    }
+
+    private int priority(String provider) {
+        Integer priority = priorities.get(provider);
+        return priority != null ? priority : 0;
+    }
+
+    private Integer findPriority(ClassNode classNode, ModuleNode moduleNode) {
+        List<AnnotationNode> annotations = classNode.getAnnotations(PROVIDER_PRIORITY_TYPE);
+        if (annotations.isEmpty()) {
+            return null;
+        }
+        Expression value = findSingleValueMember(annotations.get(0), "value");
+        if (value instanceof ConstantExpression && ((ConstantExpression) value).getValue() instanceof Number) {
+            return ((Number) ((ConstantExpression) value).getValue()).intValue();
+        }
+        addError("@ProviderPriority value must be an integer constant", classNode, moduleNode.getContext());
+        return null;
+    }
+
+    @Override
+    protected void writeLog() {
+        writeLogFile(persistence);
     }
 
     private CheckResult checkCurrentClass(ClassNode currentClass) {
@@ -133,7 +250,7 @@ public class ServiceProviderASTTransformation extends GipsyASTTransformation {
             return CheckResult.valueOf("is a static class");
         }
 
-        if (!hasNoArgsConstructor(currentClass)) {
+        if (!hasNoArgsConstructorCached(currentClass)) {
             return CheckResult.valueOf("has no public no-args constructor");
         }
 
@@ -155,6 +272,6 @@ public class ServiceProviderASTTransformation extends GipsyASTTransformation {
     }
 
     private void register(String serviceName, ClassNode provider) {
-        data.getService(serviceName).addProvider(provider.getName());
+        data.addProvider(serviceName, provider.getName());
     }
 }
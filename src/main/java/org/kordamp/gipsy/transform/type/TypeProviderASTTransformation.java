@@ -23,56 +23,63 @@ import org.codehaus.groovy.ast.ModuleNode;
 import org.codehaus.groovy.ast.expr.ClassExpression;
 import org.codehaus.groovy.ast.expr.Expression;
 import org.codehaus.groovy.control.CompilePhase;
-import org.codehaus.groovy.transform.ASTTransformation;
 import org.codehaus.groovy.transform.GroovyASTTransformation;
-import org.kordamp.gipsy.transform.GipsyASTTransformation;
-import org.kordamp.jipsy.annotations.ServiceProviderFor;
+import org.kordamp.gipsy.transform.IndexASTTransformation;
+import org.kordamp.gipsy.transform.IndexPersistence;
+import org.kordamp.gipsy.transform.ProviderStore;
 import org.kordamp.jipsy.annotations.TypeProviderFor;
 import org.kordamp.jipsy.processor.CheckResult;
-import org.kordamp.jipsy.processor.LogLocation;
-import org.kordamp.jipsy.processor.Persistence;
-import org.kordamp.jipsy.processor.type.Type;
-import org.kordamp.jipsy.processor.type.TypeCollector;
 
-import java.io.File;
-import java.io.IOException;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import static java.lang.reflect.Modifier.isPublic;
 import static java.lang.reflect.Modifier.isStatic;
 
 /**
+ * Registered through {@link org.kordamp.gipsy.transform.CompositeProviderASTTransformation}.
+ *
  * @author Andres Almiray
  */
-@ServiceProviderFor(ASTTransformation.class)
 @GroovyASTTransformation(phase = CompilePhase.CLASS_GENERATION)
-public class TypeProviderASTTransformation extends GipsyASTTransformation {
+public class TypeProviderASTTransformation extends IndexASTTransformation {
     public static final String NAME = TypeProviderASTTransformation.class.getName()
         + " (" + TypeProviderASTTransformation.class.getPackage().getImplementationVersion() + ")";
 
     private static final ClassNode SERVICE_PROVIDER_FOR_TYPE = makeClassSafe(TypeProviderFor.class);
 
 
-    private Persistence persistence;
-    private TypeCollector data;
+    private IndexPersistence persistence;
+    private ProviderStore data;
 
     @Override
     protected ClassNode getAnnotationClassNode() {
         return SERVICE_PROVIDER_FOR_TYPE;
     }
 
+    @Override
+    protected String getIndexName() {
+        return "types";
+    }
+
     @Override
     protected void initialize(ModuleNode moduleNode) {
         super.initialize(moduleNode);
+        if (options.disabled()) {
+            return;
+        }
 
-        File outputDir = moduleNode.getContext().getConfiguration().getTargetDirectory();
-        persistence = new TypePersistence(NAME, options.dir(), outputDir, logger);
-        data = new TypeCollector(persistence.getInitializer(), logger);
+        persistence = createPersistence(moduleNode, NAME, getIndexName(), outputDir -> new TypePersistence(NAME, options.dir(), outputDir, logger));
+        data = new ProviderStore(getSymbols(), persistence.getInitializer());
 
-        // Initialize if possible
+        // Initialize if possible, unless the incremental state tells which files need to be read
+        if (state != null && state.isComplete() && !isFullIndexRequired()) {
+            return;
+        }
         for (String typeName : persistence.tryFind()) {
-            data.getType(typeName);
+            data.load(typeName);
         }
         //data.cache();
     }
@@ -80,6 +87,14 @@ public class TypeProviderASTTransformation extends GipsyASTTransformation {
     @Override
     protected void removeStaleData(ClassNode classNode, ModuleNode moduleNode) {
         data.removeProvider(classNode.getName());
+        persistence.markStale(classNode.getName());
+    }
+
+    @Override
+    protected void removeProvider(String typeName, String providerName) {
+        data.load(typeName);
+        data.removeProvider(providerName);
+        persistence.markStale(providerName);
     }
 
     protected void handleAnnotations(ClassNode classNode, List<AnnotationNode> annotations, ModuleNode moduleNode) {
@@ -95,32 +110,28 @@ public class TypeProviderASTTransformation extends GipsyASTTransformation {
                 addError(implementationResult.getMessage(), classNode, moduleNode.getContext());
             } else {
                 register(type.getName(), classNode);
+                recordContribution(moduleNode, type.getName(), classNode);
             }
         }
     }
 
     @Override
-    protected void writeData() {
-        // if (data.isModified()) {
-        if (data.types().isEmpty()) {
-            logger.note(LogLocation.LOG_FILE, "Writing output");
-            try {
-                persistence.delete();
-            } catch (IOException e) {
-                logger.warning(LogLocation.LOG_FILE, "An error occurred while deleting data file");
-            }
-        } else {
-            logger.note(LogLocation.LOG_FILE, "Writing output");
-            for (Type type : data.types()) {
-                try {
-                    persistence.write(type.getName(), type.toProviderNamesList());
-                } catch (IOException e) {
-                    // TODO print out error
-                }
-            }
-            persistence.writeLog();
+    protected Map<String, List<String>> getRegistrations() {
+        Map<String, List<String>> registrations = new LinkedHashMap<String, List<String>>();
+        for (String typeName : data.entryNames()) {
+            registrations.put(typeName, data.providers(typeName));
         }
-        // }
+        return registrations;
+    }
+
+    @Override
+    protected void writeData(ModuleNode moduleNode) {
+        writeIndex(persistence, data, moduleNode);
+    }
+
+    @Override
+    protected void writeLog() {
+        writeLogFile(persistence);
     }
 
     private CheckResult checkCurrentClass(ClassNode currentClass) {
@@ -153,6 +164,6 @@ public class TypeProviderASTTransformation extends GipsyASTTransformation {
     }
 
     private void register(String typeName, ClassNode provider) {
-        data.getType(typeName).addProvider(provider.getName());
+        data.addProvider(typeName, provider.getName());
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,119 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2013-2023 Andres Almiray
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.kordamp.gipsy.transform;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.kordamp.gipsy.runtime.GipsyIndex;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class BinaryIndexRoundTripTest {
+    private Path root;
+
+    @Before
+    public void setUp() throws IOException {
+        root = Files.createTempDirectory("gipsy-index");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(root)) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    @Test
+    public void indexWrittenAtCompileTimeIsReadAtRuntime() throws IOException {
+        Map<String, Map<String, List<String>>> sections = new LinkedHashMap<String, Map<String, List<String>>>();
+        sections.put(GipsyIndex.SERVICES, entry("com.acme.Service", "com.acme.impl.Second", "com.acme.impl.First"));
+        sections.put(GipsyIndex.TYPES, entry("com.acme.Type", "com.acme.impl.TypeImpl"));
+        sections.put(GipsyIndex.SISU, entry("javax.inject.Named", "com.acme.impl.Component"));
+
+        GipsyIndex index = GipsyIndex.of(loader(index("a", BinaryIndexWriter.write(sections))));
+
+        assertEquals(Arrays.asList("com.acme.impl.Second", "com.acme.impl.First"), index.providers("com.acme.Service"));
+        assertEquals(Collections.singletonList("com.acme.impl.TypeImpl"), index.types("com.acme.Type"));
+        assertEquals(Collections.singletonList("com.acme.impl.Component"), index.sisu("javax.inject.Named"));
+        assertEquals(Collections.singleton("com.acme.Service"), index.names(GipsyIndex.SERVICES));
+        assertTrue(index.providers("com.acme.Missing").isEmpty());
+    }
+
+    @Test
+    public void indexesAreMergedInClasspathOrder() throws IOException {
+        Map<String, Map<String, List<String>>> first = Collections.singletonMap(GipsyIndex.SERVICES, entry("com.acme.Service", "com.acme.A", "com.acme.B"));
+        Map<String, Map<String, List<String>>> second = Collections.singletonMap(GipsyIndex.SERVICES, entry("com.acme.Service", "com.acme.B", "com.acme.C"));
+
+        GipsyIndex index = GipsyIndex.of(loader(index("a", BinaryIndexWriter.write(first)), index("b", BinaryIndexWriter.write(second))));
+
+        assertEquals(Arrays.asList("com.acme.A", "com.acme.B", "com.acme.C"), index.providers("com.acme.Service"));
+    }
+
+    @Test
+    public void unreadableIndexesAreSkipped() throws IOException {
+        Map<String, Map<String, List<String>>> sections = Collections.singletonMap(GipsyIndex.SERVICES, entry("com.acme.Service", "com.acme.A"));
+        byte[] valid = BinaryIndexWriter.write(sections);
+        byte[] newer = BinaryIndexWriter.write(Collections.singletonMap(GipsyIndex.SERVICES, entry("com.acme.Service", "com.acme.Newer")));
+        newer[4] = (byte) (GipsyIndex.VERSION + 1);
+        byte[] truncated = BinaryIndexWriter.write(Collections.singletonMap(GipsyIndex.SERVICES, entry("com.acme.Service", "com.acme.Truncated")));
+        truncated = Arrays.copyOf(truncated, truncated.length - 3);
+        byte[] garbage = "not an index".getBytes("UTF-8");
+
+        ClassLoader loader = loader(index("a", garbage), index("b", newer), index("c", truncated), index("d", valid));
+        GipsyIndex index = GipsyIndex.of(loader);
+
+        assertEquals(Collections.singletonList("com.acme.A"), index.providers("com.acme.Service"));
+        assertSame(index, GipsyIndex.of(loader));
+    }
+
+    private static Map<String, List<String>> entry(String name, String... providers) {
+        return Collections.singletonMap(name, Arrays.asList(providers));
+    }
+
+    private File index(String directory, byte[] bytes) throws IOException {
+        Path file = root.resolve(directory).resolve(GipsyIndex.RESOURCE_NAME);
+        Files.createDirectories(file.getParent());
+        Files.write(file, bytes);
+        return root.resolve(directory).toFile();
+    }
+
+    private static ClassLoader loader(File... directories) throws IOException {
+        URL[] urls = new URL[directories.length];
+        for (int i = 0; i < directories.length; i++) {
+            urls[i] = directories[i].toURI().toURL();
+        }
+        return new URLClassLoader(urls, null);
+    }
+}
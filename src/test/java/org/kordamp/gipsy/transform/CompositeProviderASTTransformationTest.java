@@ -0,0 +1,143 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2013-2023 Andres Almiray
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.kordamp.gipsy.transform;
+
+import org.codehaus.groovy.control.CompilationUnit;
+import org.codehaus.groovy.control.CompilerConfiguration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CompositeProviderASTTransformationTest {
+    private static final String DEFERRED_WRITES = "org.kordamp.gipsy.DEFERRED_WRITES";
+    private static final long OLD_TIME = 1000000000000L;
+
+    private final Map<String, String> sources = new LinkedHashMap<String, String>();
+    private Path root;
+    private File outputDir;
+
+    @Before
+    public void setUp() throws IOException {
+        root = Files.createTempDirectory("gipsy-compile");
+        outputDir = root.resolve("classes").toFile();
+        source("Greeter", "interface Greeter {}");
+        source("Shape", "interface Shape {}");
+        source("Component", "interface Component {}");
+        source("EnglishGreeter", "@org.kordamp.jipsy.annotations.ServiceProviderFor(Greeter)\nclass EnglishGreeter implements Greeter {}");
+        source("FrenchGreeter", "@org.kordamp.jipsy.annotations.ServiceProviderFor(Greeter)\nclass FrenchGreeter implements Greeter {}");
+        source("Circle", "@org.kordamp.jipsy.annotations.TypeProviderFor(Shape)\nclass Circle implements Shape {}");
+        source("DefaultComponent", "@org.kordamp.jipsy.annotations.SisuIndexFor(Component)\nclass DefaultComponent implements Component {}");
+        source("Plain", "class Plain { String name }");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        System.clearProperty(DEFERRED_WRITES);
+        try (Stream<Path> paths = Files.walk(root)) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    @Test
+    public void writesIndexFilesPerModule() throws IOException {
+        assertIndexFilesWrittenOnce();
+    }
+
+    @Test
+    public void writesIndexFilesOnceWithDeferredWrites() throws IOException {
+        System.setProperty(DEFERRED_WRITES, "true");
+        assertIndexFilesWrittenOnce();
+    }
+
+    private void assertIndexFilesWrittenOnce() throws IOException {
+        compile();
+
+        File services = indexFile("services/acme.Greeter");
+        File types = indexFile("types/acme.Shape");
+        File sisu = indexFile("sisu/acme.Component");
+        assertEquals(Arrays.asList("acme.EnglishGreeter", "acme.FrenchGreeter"), providers(services));
+        assertEquals(Collections.singletonList("acme.Circle"), providers(types));
+        assertEquals(Collections.singletonList("acme.DefaultComponent"), providers(sisu));
+
+        for (File file : Arrays.asList(services, types, sisu)) {
+            assertTrue(file.setLastModified(OLD_TIME));
+        }
+        compile();
+
+        for (File file : Arrays.asList(services, types, sisu)) {
+            assertEquals(file.getName() + " was rewritten", OLD_TIME, file.lastModified());
+        }
+        assertEquals(Collections.emptyList(), leftovers());
+    }
+
+    private void source(String name, String content) {
+        sources.put("acme/" + name + ".groovy", "package acme\n" + content + "\n");
+    }
+
+    private void compile() {
+        CompilerConfiguration configuration = new CompilerConfiguration();
+        configuration.setTargetDirectory(outputDir);
+
+        // the transformation is picked up through its global registration
+        CompilationUnit unit = new CompilationUnit(configuration);
+        for (Map.Entry<String, String> source : sources.entrySet()) {
+            unit.addSource(source.getKey(), source.getValue());
+        }
+        unit.compile();
+    }
+
+    private File indexFile(String name) {
+        File file = new File(outputDir, "META-INF/" + name);
+        assertTrue(file + " was not written", file.isFile());
+        return file;
+    }
+
+    private static List<String> providers(File file) throws IOException {
+        List<String> providers = new ArrayList<String>();
+        for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+            if (!line.trim().isEmpty() && !line.startsWith("#")) {
+                providers.add(line.trim());
+            }
+        }
+        return providers;
+    }
+
+    private List<String> leftovers() throws IOException {
+        try (Stream<Path> paths = Files.walk(root)) {
+            return paths.map(Path::toString).filter(path -> path.endsWith(".gipsy.tmp")).collect(Collectors.toList());
+        }
+    }
+}
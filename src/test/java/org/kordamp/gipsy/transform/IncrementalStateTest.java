@@ -0,0 +1,218 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2013-2023 Andres Almiray
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.kordamp.gipsy.transform;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class IncrementalStateTest {
+    private static final String KIND = "org.kordamp.jipsy.annotations.ServiceProviderFor";
+    private static final long AN_HOUR_AGO = System.currentTimeMillis() - 3600_000L;
+
+    private Path root;
+    private File stateFile;
+
+    @Before
+    public void setUp() throws IOException {
+        root = Files.createTempDirectory("gipsy-state");
+        stateFile = IncrementalState.stateFileFor(root.resolve("classes").toFile());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(root)) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    @Test
+    public void stateFileIsNotPackagedWithTheOutputDirectory() {
+        File outputDir = root.resolve("classes").toFile();
+        assertEquals(outputDir.getAbsoluteFile().getParentFile(), IncrementalState.stateFileFor(outputDir).getParentFile());
+    }
+
+    @Test
+    public void missingFileYieldsAnEmptyState() {
+        IncrementalState state = IncrementalState.load(stateFile);
+        assertFalse(state.isLoaded());
+        assertTrue(state.remove("Missing.groovy").isEmpty());
+    }
+
+    @Test
+    public void corruptFileYieldsAnEmptyState() throws IOException {
+        stateFile.getParentFile().mkdirs();
+        Files.write(stateFile.toPath(), "not a state file".getBytes(StandardCharsets.UTF_8));
+
+        assertFalse(IncrementalState.load(stateFile).isLoaded());
+    }
+
+    @Test
+    public void contributionsSurviveSaveAndLoad() throws IOException {
+        String source = source("a", "Foo.groovy");
+        IncrementalState state = IncrementalState.load(stateFile);
+        state.record(source, KIND, "com.acme.Service", "com.acme.Foo");
+        state.record(source, KIND, "com.acme.Other", "com.acme.Foo");
+        state.save();
+
+        IncrementalState loaded = IncrementalState.load(stateFile);
+        assertTrue(loaded.isLoaded());
+        List<IncrementalState.Contribution> contributions = loaded.remove(source);
+        assertEquals(2, contributions.size());
+        assertEquals(KIND, contributions.get(0).getKind());
+        assertEquals("com.acme.Service", contributions.get(0).getType());
+        assertEquals("com.acme.Foo", contributions.get(0).getProvider());
+        assertEquals("com.acme.Other", contributions.get(1).getType());
+        assertTrue(loaded.remove(source).isEmpty());
+    }
+
+    @Test
+    public void removedSourcesAreNotSaved() throws IOException {
+        String foo = source("a", "Foo.groovy");
+        String bar = source("a", "Bar.groovy");
+        IncrementalState state = IncrementalState.load(stateFile);
+        state.record(foo, KIND, "com.acme.Service", "com.acme.Foo");
+        state.record(bar, KIND, "com.acme.Service", "com.acme.Bar");
+        state.save();
+
+        IncrementalState loaded = IncrementalState.load(stateFile);
+        assertEquals(1, loaded.remove(foo).size());
+        loaded.save();
+
+        IncrementalState reloaded = IncrementalState.load(stateFile);
+        assertTrue(reloaded.remove(foo).isEmpty());
+        assertEquals(1, reloaded.remove(bar).size());
+    }
+
+    @Test
+    public void deletedSourcesAreRemoved() throws IOException {
+        String foo = source("a", "Foo.groovy");
+        String bar = source("a", "Bar.groovy");
+        IncrementalState state = IncrementalState.load(stateFile);
+        state.record(foo, KIND, "com.acme.Service", "com.acme.Foo");
+        state.record(bar, KIND, "com.acme.Service", "com.acme.Bar");
+        state.save();
+
+        Files.delete(new File(foo).toPath());
+        IncrementalState loaded = IncrementalState.load(stateFile);
+        List<IncrementalState.Contribution> removed = loaded.removeDeletedSources();
+        assertEquals(1, removed.size());
+        assertEquals("com.acme.Foo", removed.get(0).getProvider());
+        loaded.save();
+
+        IncrementalState reloaded = IncrementalState.load(stateFile);
+        assertTrue(reloaded.remove(foo).isEmpty());
+        assertEquals(1, reloaded.remove(bar).size());
+    }
+
+    @Test
+    public void unchangedDirectoriesAreNotScanned() throws IOException {
+        String foo = source("a", "Foo.groovy");
+        File directory = new File(foo).getParentFile();
+        IncrementalState state = IncrementalState.load(stateFile);
+        state.record(foo, KIND, "com.acme.Service", "com.acme.Foo");
+        // a source the directory time does not account for, as if deleted before the time was taken
+        state.record(new File(directory, "Gone.groovy").getAbsolutePath(), KIND, "com.acme.Service", "com.acme.Gone");
+        assertTrue(directory.setLastModified(AN_HOUR_AGO));
+        state.save();
+
+        assertTrue(IncrementalState.load(stateFile).removeDeletedSources().isEmpty());
+
+        assertTrue(directory.setLastModified(AN_HOUR_AGO + 1000));
+        List<IncrementalState.Contribution> removed = IncrementalState.load(stateFile).removeDeletedSources();
+        assertEquals(1, removed.size());
+        assertEquals("com.acme.Gone", removed.get(0).getProvider());
+    }
+
+    @Test
+    public void sourcesOfMissingDirectoriesAreKept() throws IOException {
+        String foo = source("a", "Foo.groovy");
+        File directory = new File(foo).getParentFile();
+        IncrementalState state = IncrementalState.load(stateFile);
+        state.record(foo, KIND, "com.acme.Service", "com.acme.Foo");
+        assertTrue(directory.setLastModified(AN_HOUR_AGO));
+        state.save();
+
+        Files.delete(new File(foo).toPath());
+        Files.delete(directory.toPath());
+        IncrementalState loaded = IncrementalState.load(stateFile);
+        assertTrue(loaded.removeDeletedSources().isEmpty());
+        assertEquals(1, loaded.remove(foo).size());
+    }
+
+    @Test
+    public void pathsAreStoredRelativeToTheStateFile() throws IOException {
+        String foo = source("a", "Foo.groovy");
+        IncrementalState state = IncrementalState.load(stateFile);
+        state.record(foo, KIND, "com.acme.Service", "com.acme.Foo");
+        state.save();
+
+        String content = new String(Files.readAllBytes(stateFile.toPath()), StandardCharsets.ISO_8859_1);
+        assertFalse(content.contains(root.toString()));
+    }
+
+    @Test
+    public void stateSurvivesMovingTheProject() throws IOException {
+        String foo = source("a", "Foo.groovy");
+        IncrementalState state = IncrementalState.load(stateFile);
+        state.record(foo, KIND, "com.acme.Service", "com.acme.Foo");
+        state.save();
+
+        Path moved = root.resolve("moved");
+        Files.createDirectories(moved);
+        Files.move(root.resolve("src"), moved.resolve("src"));
+        Files.move(stateFile.toPath(), moved.resolve(stateFile.getName()));
+
+        IncrementalState loaded = IncrementalState.load(moved.resolve(stateFile.getName()).toFile());
+        assertTrue(loaded.removeDeletedSources().isEmpty());
+        String movedFoo = moved.resolve("src").resolve("a").resolve("Foo.groovy").toString();
+        assertEquals(1, loaded.remove(movedFoo).size());
+    }
+
+    @Test
+    public void completenessIsKept() throws IOException {
+        IncrementalState state = IncrementalState.load(stateFile);
+        assertFalse(state.isComplete());
+        state.record(source("a", "Foo.groovy"), KIND, "com.acme.Service", "com.acme.Foo");
+        state.save();
+        assertFalse(IncrementalState.load(stateFile).isComplete());
+
+        IncrementalState partial = IncrementalState.load(stateFile);
+        partial.markComplete();
+        partial.save();
+        assertTrue(IncrementalState.load(stateFile).isComplete());
+    }
+
+    private String source(String directory, String name) throws IOException {
+        Path dir = Files.createDirectories(root.resolve("src").resolve(directory));
+        return Files.write(dir.resolve(name), new byte[0]).toFile().getAbsolutePath();
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2013-2023 Andres Almiray
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.kordamp.gipsy.transform;
+
+import org.junit.Test;
+import org.kordamp.jipsy.processor.Initializer;
+
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ProviderStoreTest {
+    private final Map<String, CharSequence> files = new HashMap<String, CharSequence>();
+
+    @Test
+    public void providersAreSortedAndEntriesKeepLoadOrder() {
+        ProviderStore store = store();
+        store.addProvider("com.acme.Zeta", "com.acme.impl.B");
+        store.addProvider("com.acme.Zeta", "com.acme.impl.A");
+        store.addProvider("com.acme.Alpha", "com.acme.impl.C");
+
+        assertEquals(Arrays.asList("com.acme.Zeta", "com.acme.Alpha"), store.entryNames());
+        assertEquals(Arrays.asList("com.acme.impl.A", "com.acme.impl.B"), store.providers("com.acme.Zeta"));
+        assertEquals("com.acme.impl.A\ncom.acme.impl.B\n", store.toProviderNamesList("com.acme.Zeta"));
+    }
+
+    @Test
+    public void duplicateProvidersAreKeptOnce() {
+        ProviderStore store = store();
+        store.addProvider("com.acme.Service", "com.acme.impl.A");
+        store.addProvider("com.acme.Service", "com.acme.impl.A");
+
+        assertEquals(Collections.singletonList("com.acme.impl.A"), store.providers("com.acme.Service"));
+    }
+
+    @Test
+    public void removedProvidersLeaveEveryEntry() {
+        ProviderStore store = store();
+        store.addProvider("com.acme.One", "com.acme.impl.A");
+        store.addProvider("com.acme.One", "com.acme.impl.B");
+        store.addProvider("com.acme.Two", "com.acme.impl.A");
+
+        store.removeProvider("com.acme.impl.A");
+
+        assertEquals(Collections.singletonList("com.acme.impl.B"), store.providers("com.acme.One"));
+        assertTrue(store.providers("com.acme.Two").isEmpty());
+        assertEquals(Arrays.asList("com.acme.One", "com.acme.Two"), store.entryNames());
+        assertFalse(store.isEmpty());
+    }
+
+    @Test
+    public void removingAnUnknownProviderIsIgnored() {
+        ProviderStore store = store();
+        store.addProvider("com.acme.Service", "com.acme.impl.A");
+
+        store.removeProvider("com.acme.impl.Unknown");
+        store.removeProvider("com.acme.Service");
+
+        assertEquals(Collections.singletonList("com.acme.impl.A"), store.providers("com.acme.Service"));
+    }
+
+    @Test
+    public void removedProvidersCanBeAddedAgain() {
+        ProviderStore store = store();
+        store.addProvider("com.acme.One", "com.acme.impl.A");
+        store.addProvider("com.acme.Two", "com.acme.impl.A");
+        store.removeProvider("com.acme.impl.A");
+
+        store.addProvider("com.acme.Two", "com.acme.impl.A");
+        assertTrue(store.providers("com.acme.One").isEmpty());
+        assertEquals(Collections.singletonList("com.acme.impl.A"), store.providers("com.acme.Two"));
+
+        store.removeProvider("com.acme.impl.A");
+        assertTrue(store.providers("com.acme.Two").isEmpty());
+    }
+
+    @Test
+    public void indexFilesAreReadOnFirstLoad() {
+        files.put("com.acme.Service", CharBuffer.wrap("# generated\r\n  com.acme.impl.B  \r\n\ncom.acme.impl.A # trailing\n#com.acme.impl.Hidden"));
+        ProviderStore store = store();
+        assertTrue(store.isEmpty());
+
+        store.load("com.acme.Service");
+        assertEquals(Arrays.asList("com.acme.impl.A", "com.acme.impl.B"), store.providers("com.acme.Service"));
+
+        files.put("com.acme.Service", "com.acme.impl.C\n");
+        store.load("com.acme.Service");
+        assertEquals(Arrays.asList("com.acme.impl.A", "com.acme.impl.B"), store.providers("com.acme.Service"));
+    }
+
+    @Test
+    public void addingToAnEntryKeepsItsIndexFileProviders() {
+        files.put("com.acme.Service", "com.acme.impl.A\n");
+        ProviderStore store = store();
+
+        store.addProvider("com.acme.Service", "com.acme.impl.B");
+        assertEquals(Arrays.asList("com.acme.impl.A", "com.acme.impl.B"), store.providers("com.acme.Service"));
+    }
+
+    @Test
+    public void unknownEntriesHaveNoProviders() {
+        ProviderStore store = store();
+
+        assertTrue(store.providers("com.acme.Missing").isEmpty());
+        assertTrue(store.entryNames().isEmpty());
+        assertTrue(store.isEmpty());
+    }
+
+    @Test
+    public void storeGrows() {
+        ProviderStore store = store();
+        for (int s = 0; s < 300; s++) {
+            for (int p = 0; p < 40; p++) {
+                store.addProvider("com.acme.Service" + s, "com.acme.impl.Provider" + (s * 7 + p) % 500);
+            }
+        }
+
+        assertEquals(300, store.entryNames().size());
+        for (int s = 0; s < 300; s++) {
+            List<String> expected = new ArrayList<String>();
+            for (int p = 0; p < 40; p++) {
+                expected.add("com.acme.impl.Provider" + (s * 7 + p) % 500);
+            }
+            Collections.sort(expected);
+            assertEquals(expected, store.providers("com.acme.Service" + s));
+        }
+
+        store.removeProvider("com.acme.impl.Provider0");
+        assertFalse(store.providers("com.acme.Service0").contains("com.acme.impl.Provider0"));
+        assertEquals(39, store.providers("com.acme.Service0").size());
+    }
+
+    private ProviderStore store() {
+        return new ProviderStore(new SymbolTable(), new Initializer() {
+            @Override
+            public CharSequence initialData(String name) {
+                return files.get(name);
+            }
+        });
+    }
+}
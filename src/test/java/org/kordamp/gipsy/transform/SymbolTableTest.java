@@ -0,0 +1,107 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2013-2023 Andres Almiray
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.kordamp.gipsy.transform;
+
+import org.junit.Test;
+
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SymbolTableTest {
+    @Test
+    public void namesRoundTrip() {
+        SymbolTable symbols = new SymbolTable();
+        int service = symbols.intern("com.acme.Service");
+        int plain = symbols.intern("Plain");
+        int nested = symbols.intern("com.acme.spi.Provider$Inner");
+
+        assertEquals("com.acme.Service", symbols.name(service));
+        assertEquals("Plain", symbols.name(plain));
+        assertEquals("com.acme.spi.Provider$Inner", symbols.name(nested));
+        assertEquals(3, symbols.size());
+    }
+
+    @Test
+    public void internIsIdempotent() {
+        SymbolTable symbols = new SymbolTable();
+        int symbol = symbols.intern("com.acme.Service");
+
+        assertEquals(symbol, symbols.intern("com.acme.Service"));
+        assertEquals(symbol, symbols.intern(new StringBuilder("com.acme.Service"), 0, 16));
+        assertEquals(1, symbols.size());
+    }
+
+    @Test
+    public void findDoesNotAdd() {
+        SymbolTable symbols = new SymbolTable();
+        symbols.intern("com.acme.Service");
+
+        assertEquals(-1, symbols.find("com.acme.Other"));
+        assertEquals(-1, symbols.find("com.acme"));
+        assertEquals(-1, symbols.find("Service"));
+        assertEquals(1, symbols.size());
+    }
+
+    @Test
+    public void namesInPackagesSharingAPrefixAreDistinct() {
+        SymbolTable symbols = new SymbolTable();
+        int a = symbols.intern("com.acme.A");
+        int b = symbols.intern("com.acme.a.A");
+        int c = symbols.intern("com.acmea.A");
+
+        assertEquals(3, symbols.size());
+        assertEquals("com.acme.A", symbols.name(a));
+        assertEquals("com.acme.a.A", symbols.name(b));
+        assertEquals("com.acmea.A", symbols.name(c));
+    }
+
+    @Test
+    public void rangesOfACharSequenceAreInterned() {
+        SymbolTable symbols = new SymbolTable();
+        int known = symbols.intern("com.acme.Known");
+        CharBuffer content = CharBuffer.wrap("  com.acme.Known\ncom.acme.New  ");
+
+        assertEquals(known, symbols.intern(content, 2, 16));
+        int added = symbols.intern(content, 17, 29);
+        assertEquals("com.acme.New", symbols.name(added));
+        assertEquals(added, symbols.find("com.acme.New"));
+    }
+
+    @Test
+    public void tablesGrow() {
+        SymbolTable symbols = new SymbolTable();
+        List<String> names = new ArrayList<String>();
+        for (int i = 0; i < 5000; i++) {
+            names.add("pkg" + (i % 300) + ".Class" + i);
+        }
+        for (int i = 0; i < names.size(); i++) {
+            assertEquals(i, symbols.intern(names.get(i)));
+        }
+
+        assertEquals(names.size(), symbols.size());
+        for (int i = 0; i < names.size(); i++) {
+            assertEquals(i, symbols.find(names.get(i)));
+            assertEquals(names.get(i), symbols.name(i));
+        }
+        assertTrue(symbols.find("pkg0.Class1") < 0);
+    }
+}